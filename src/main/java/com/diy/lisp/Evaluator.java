@@ -1,6 +1,5 @@
 package com.diy.lisp;
 
-import com.diy.lisp.exception.NotImplementedException;
 import com.diy.lisp.model.*;
 
 /**
@@ -14,6 +13,6 @@ public class Evaluator {
      * what instance `ast` is.
      */
     public static AbstractSyntaxTree evaluate(AbstractSyntaxTree ast, Environment env) {
-        throw new NotImplementedException("Not implemented yet. You'll do this part on your own");
+        return ast.evaluate(env);
     }
 }
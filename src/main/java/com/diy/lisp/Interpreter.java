@@ -1,18 +1,38 @@
 package com.diy.lisp;
 
 import com.diy.lisp.model.AbstractSyntaxTree;
+import com.diy.lisp.model.Engine;
 import com.diy.lisp.model.Environment;
+import com.diy.lisp.model.Optimizer;
 
 import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.List;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 
 import static com.diy.lisp.Evaluator.evaluate;
 import static com.diy.lisp.Parser.parse;
 
 public class Interpreter {
 
+    /**
+     * Chooses how function bodies are run from now on. See `Engine`.
+     */
+    public static void setEngine(Engine engine) {
+        Engine.use(engine);
+    }
+
+    public static Engine engine() {
+        return Engine.current();
+    }
+
     /**
      * Interpret a lisp program statement.
      *
@@ -20,7 +40,7 @@ public class Interpreter {
      * returns the resulting lisp expression as a string.
      */
     public static String interpret(String source, Environment env) {
-        return evaluate(parse(source), env).toString();
+        return evaluate(Optimizer.optimize(parse(source), env), env).toString();
     }
 
     /**
@@ -30,18 +50,57 @@ public class Interpreter {
      * Returns the value of the last expression of the file.
      */
     public static AbstractSyntaxTree interpretFile(String path, Environment env) {
-        try {
-            String fileContent = new String(Files.readAllBytes(Paths.get(path)));
-            List<AbstractSyntaxTree> parsed = Parser.parseMultiple(fileContent);
-            parsed.stream()
-                .forEach((exp) -> Evaluator.evaluate(exp, env));
-
-            return parsed.get(parsed.size() - 1);
-        } catch (IOException e) {
+        try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.UTF_8)) {
+            return interpretStream(reader, env);
+        } catch (IOException | UncheckedIOException e) {
             System.out.println(String.format("Fatal error while trying to read contents of %s as string", path));
             e.printStackTrace();
         }
 
         return null;
     }
+
+    /**
+     * Interpret a lisp file, reading it through a memory mapping.
+     *
+     * Behaves like `interpretFile`, but the file is decoded straight from the
+     * mapped pages instead of going through a heap buffer. Use this for large
+     * data files, where the extra copy would otherwise double the memory needed
+     * to load them.
+     */
+    public static AbstractSyntaxTree interpretMappedFile(String path, Environment env) {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            return interpretStream(new MappedSource(channel, StandardCharsets.UTF_8), env);
+        } catch (IOException | UncheckedIOException e) {
+            System.out.println(String.format("Fatal error while trying to read contents of %s as string", path));
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Interpret a series of statements read from a channel, decoded as UTF-8.
+     *
+     * See `interpretStream(Readable, Environment)`.
+     */
+    public static AbstractSyntaxTree interpretStream(ReadableByteChannel channel, Environment env) {
+        return interpretStream(Channels.newReader(channel, StandardCharsets.UTF_8.newDecoder(), -1), env);
+    }
+
+    /**
+     * Interpret a series of statements read from `in`.
+     *
+     * Each statement is evaluated as soon as it has been read, before the next
+     * one is parsed, so memory use does not grow with the length of the input.
+     * Returns the value of the last statement, or null if there were none.
+     */
+    public static AbstractSyntaxTree interpretStream(Readable in, Environment env) {
+        AbstractSyntaxTree result = null;
+        Iterator<AbstractSyntaxTree> expressions = Parser.parseStream(in);
+        while (expressions.hasNext())
+            result = evaluate(Optimizer.optimize(expressions.next(), env), env);
+
+        return result;
+    }
 }
@@ -0,0 +1,209 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.ParseException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Cursor based tokenizer used by the parser.
+ *
+ * The lexer walks its input exactly once. Input is pulled from a `Readable` into
+ * a small window that is refilled as the cursor reaches its end, so only the
+ * token currently being read has to be kept in memory. Input given as a string
+ * is copied in whole instead, into a buffer just large enough to hold it. Token bounds are given as
+ * absolute offsets into the input, and only the characters of atoms and strings
+ * are ever copied out of the window.
+ *
+ * Tokens are read lazily: the lexer does not look at the input following a token
+ * until the parser asks for it. This lets a caller evaluate a complete top-level
+ * expression before the next one has arrived.
+ */
+class Lexer {
+
+    enum Token { OPEN, CLOSE, QUOTE, STRING, ATOM, EOF }
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Readable in;
+    private char[] buffer;
+    private int offset;     // input offset of buffer[0]
+    private int pos;        // cursor, index into buffer
+    private int limit;      // number of valid chars in buffer
+    private boolean eof;
+
+    private Token token;
+    private int start;      // index into buffer
+    private int end;        // index into buffer
+
+    Lexer(CharSequence source) {
+        this.in = null;
+        this.buffer = source instanceof String ? ((String) source).toCharArray() : new char[source.length()];
+        if (!(source instanceof String))
+            CharBuffer.wrap(source).get(buffer);
+        this.limit = buffer.length;
+        this.eof = true;
+    }
+
+    Lexer(Readable in) {
+        this(in, BUFFER_SIZE);
+    }
+
+    Lexer(Readable in, int bufferSize) {
+        this.in = in;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * The current token. Reads it from the input if needed, but does not consume it.
+     */
+    Token token() {
+        if (token == null)
+            scan();
+        return token;
+    }
+
+    /**
+     * Consume the current token. The next one is not read until `token` is called.
+     */
+    void consume() {
+        token();
+        token = null;
+    }
+
+    /**
+     * Input offset of the first character of the current token.
+     */
+    int start() {
+        token();
+        return offset + start;
+    }
+
+    /**
+     * The characters of the current token. For strings, the surrounding
+     * quotes are not included.
+     */
+    String text() {
+        token();
+        if (token == Token.STRING)
+            return new String(buffer, start + 1, end - start - 2);
+        return new String(buffer, start, end - start);
+    }
+
+    private void scan() {
+        skipWhitespaceAndComments();
+        start = pos;
+
+        if (!available()) {
+            end = pos;
+            token = Token.EOF;
+            return;
+        }
+
+        switch (buffer[pos]) {
+            case '(':
+                single(Token.OPEN);
+                break;
+            case ')':
+                single(Token.CLOSE);
+                break;
+            case '\'':
+                single(Token.QUOTE);
+                break;
+            case '"':
+                string();
+                break;
+            default:
+                atom();
+        }
+    }
+
+    private void single(Token t) {
+        end = ++pos;
+        token = t;
+    }
+
+    private void string() {
+        pos++;
+        while (available()) {
+            char c = buffer[pos++];
+            if (c == '\\' && available()) {
+                pos++;
+            } else if (c == '"') {
+                end = pos;
+                token = Token.STRING;
+                return;
+            }
+        }
+
+        throw new ParseException("Unclosed string: " + new String(buffer, start, pos - start));
+    }
+
+    private void atom() {
+        while (available() && !isDelimiter(buffer[pos]))
+            pos++;
+
+        end = pos;
+        token = Token.ATOM;
+    }
+
+    private void skipWhitespaceAndComments() {
+        boolean comment = false;
+        while (true) {
+            start = pos;
+            if (!available())
+                return;
+
+            char c = buffer[pos];
+            if (c == '\n')
+                comment = false;
+            else if (c == ';')
+                comment = true;
+            else if (!comment && !Character.isWhitespace(c))
+                return;
+
+            pos++;
+        }
+    }
+
+    /**
+     * Makes sure there is at least one character at the cursor, refilling the
+     * window if needed. Everything from the start of the current token is kept.
+     */
+    private boolean available() {
+        while (pos == limit) {
+            if (eof)
+                return false;
+            refill();
+        }
+        return true;
+    }
+
+    private void refill() {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            offset += start;
+            pos -= start;
+            limit -= start;
+            start = 0;
+        }
+        if (limit == buffer.length)
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+        try {
+            int read = in.read(CharBuffer.wrap(buffer, limit, buffer.length - limit));
+            if (read < 0)
+                eof = true;
+            else
+                limit += read;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isDelimiter(char c) {
+        return Character.isWhitespace(c) || c == '(' || c == ')' || c == '\'' || c == '"' || c == ';';
+    }
+}
@@ -0,0 +1,79 @@
+package com.diy.lisp;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Character source decoding a file straight from memory mapped regions.
+ *
+ * The file is mapped one region at a time and decoded into whatever buffer the
+ * reader passes in, so no heap copy of the file contents is ever made. A
+ * multi-byte character split across two regions is carried over by starting
+ * the next region at the first byte the decoder could not consume.
+ */
+class MappedSource implements Readable {
+
+    private static final long REGION_SIZE = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final CharsetDecoder decoder;
+    private final long regionSize;
+
+    private MappedByteBuffer region;
+    private long regionStart;
+    private boolean flushed;
+
+    MappedSource(FileChannel channel, Charset charset) {
+        this(channel, charset, REGION_SIZE);
+    }
+
+    MappedSource(FileChannel channel, Charset charset, long regionSize) {
+        this.channel = channel;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        this.regionSize = regionSize;
+    }
+
+    @Override
+    public int read(CharBuffer cb) throws IOException {
+        if (flushed)
+            return -1;
+
+        int before = cb.position();
+        while (cb.position() == before && !flushed) {
+            if (region == null || !region.hasRemaining() && !lastRegion())
+                map();
+
+            boolean endOfInput = lastRegion();
+            CoderResult result = decoder.decode(region, cb, endOfInput);
+            if (result.isError())
+                result.throwException();
+
+            if (endOfInput && !region.hasRemaining() && decoder.flush(cb).isUnderflow())
+                flushed = true;
+            else if (result.isUnderflow() && !endOfInput)
+                map();
+        }
+
+        int read = cb.position() - before;
+        return read == 0 && flushed ? -1 : read;
+    }
+
+    private boolean lastRegion() throws IOException {
+        return regionStart + region.limit() >= channel.size();
+    }
+
+    private void map() throws IOException {
+        if (region != null)
+            regionStart += region.position();
+        long size = Math.min(regionSize, channel.size() - regionStart);
+        region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, size);
+    }
+}
@@ -1,16 +1,20 @@
 package com.diy.lisp;
 
-import com.diy.lisp.exception.NotImplementedException;
+import com.diy.lisp.Lexer.Token;
 import com.diy.lisp.exception.ParseException;
 import com.diy.lisp.model.*;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.NoSuchElementException;
 
-import static java.util.Arrays.asList;
+import static com.diy.lisp.model.Bool.bool;
+import static com.diy.lisp.model.Int.number;
+import static com.diy.lisp.model.SList.list;
+import static com.diy.lisp.model.SList.quote;
+import static com.diy.lisp.model.Str.str;
+import static com.diy.lisp.model.Symbol.symbol;
 
 /**
  * This is the parser module, with the `parse` function which you'll implement
@@ -24,88 +28,103 @@ public class Parser {
      * the corresponding AbstractSyntaxTree
      */
     public static AbstractSyntaxTree parse(String source) {
-        throw new NotImplementedException("Not implemented yet. You'll do this part on your own");
+        Lexer lexer = new Lexer(source);
+        AbstractSyntaxTree ast = parseExpression(lexer);
+
+        if (lexer.token() != Token.EOF)
+            throw new ParseException("Expected EOF, got: " + source.substring(lexer.start()));
+
+        return ast;
     }
 
     /**
-     * Below are a few useful utility functions. These should come in handy when
-     * implementing `parse`. We don't want to spend the day implementing parenthesis
-     * counting, after all.
+     * Parse every expression in `source`, in order. The source is only
+     * scanned once, no matter how many expressions it contains.
      */
-
     public static List<AbstractSyntaxTree> parseMultiple(String source) {
-        source = removeComments(source);
-        return asList(splitExpressions(source))
-                .stream()
-                .map(Parser::parse)
-                .collect(Collectors.toList());
-    }
+        Lexer lexer = new Lexer(source);
+        List<AbstractSyntaxTree> expressions = new ArrayList<>();
+        while (lexer.token() != Token.EOF)
+            expressions.add(parseExpression(lexer));
 
-    public static String removeComments(String source) {
-        return source.replaceAll(";.*\n", "\n");
+        return expressions;
     }
 
-    private static int findMatchingParen(String source) {
-        return findMatchingParen(source, 0);
+    /**
+     * Parse expressions from `in` one at a time, as they are requested.
+     *
+     * Nothing is read ahead of the expression being returned, so the caller
+     * can act on each expression before the rest of the input has arrived.
+     */
+    public static Iterator<AbstractSyntaxTree> parseStream(Readable in) {
+        Lexer lexer = new Lexer(in);
+        return new Iterator<AbstractSyntaxTree>() {
+            @Override
+            public boolean hasNext() {
+                return lexer.token() != Token.EOF;
+            }
+
+            @Override
+            public AbstractSyntaxTree next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return parseExpression(lexer);
+            }
+        };
     }
 
-    private static int findMatchingParen(String source, int start) {
-        int pos = start;
-        int openBrackets = 1;
-        while (openBrackets > 0) {
-            pos++;
-            if (pos == source.length())
-                throw new ParseException("Incomplete expression: " + source.substring(start));
-
-            if (source.charAt(pos) == '(')
-                openBrackets++;
-
-            if (source.charAt(pos) == ')')
-                openBrackets--;
-        }
-
-        return pos;
+    public static String removeComments(String source) {
+        return source.replaceAll(";.*\n", "\n");
     }
 
-    private static String[] splitExpressions(String source) {
-        source = source.trim();
-
-        List<String> expressions = new ArrayList<>();
-        String[] split;
-        while ((split = firstExpression(source)) != null) {
-            source = split[1];
-            expressions.add(split[0]);
+    /**
+     * Parse the expression starting at the current token, consuming all of
+     * its tokens but none after it.
+     */
+    private static AbstractSyntaxTree parseExpression(Lexer lexer) {
+        switch (lexer.token()) {
+            case OPEN:
+                return parseList(lexer);
+            case QUOTE:
+                lexer.consume();
+                return quote(parseExpression(lexer));
+            case STRING:
+                Str s = str(lexer.text());
+                lexer.consume();
+                return s;
+            case ATOM:
+                AbstractSyntaxTree atom = parseAtom(lexer.text());
+                lexer.consume();
+                return atom;
+            case CLOSE:
+                throw new ParseException("Unexpected ')' at position " + lexer.start());
+            default:
+                throw new ParseException("Unexpected EOF, expected an expression");
         }
-
-        return expressions.toArray(new String[]{});
     }
 
+    private static SList parseList(Lexer lexer) {
+        int start = lexer.start();
+        List<AbstractSyntaxTree> expressions = new ArrayList<>();
 
-    private static String[] firstExpression(String source) {
-        if (source == null || source.equals(""))
-            return null;
-
-        source = source.trim();
-
-        if (source.charAt(0) == '\'') {
-            String[] exps = firstExpression(source.substring(1));
-            exps[0] = source.substring(0, 1) + exps[0];
-            return exps;
-        }
-
-        if (source.charAt(0) == '(') {
-            int index = findMatchingParen(source) + 1;
-            return new String[] { source.substring(0, index), source.substring(index)};
+        lexer.consume();
+        while (lexer.token() != Token.CLOSE) {
+            if (lexer.token() == Token.EOF)
+                throw new ParseException("Incomplete expression: missing ')' for '(' at position " + start);
+            expressions.add(parseExpression(lexer));
         }
+        lexer.consume();
 
-        Pattern p = Pattern.compile("^[^\\s']+");
-        Matcher m = p.matcher(source);
-        boolean found = m.find();
-        if (!found)
-            return null;
-
-        int index = m.end();
-        return new String[] { source.substring(0, index), source.substring(index) };
+        return list(expressions);
     }
 
+    private static AbstractSyntaxTree parseAtom(String token) {
+        if (token.equals("#t"))
+            return bool(true);
+        if (token.equals("#f"))
+            return bool(false);
+        if (Int.isNumber(token))
+            return number(token);
+        return symbol(token);
+    }
 }
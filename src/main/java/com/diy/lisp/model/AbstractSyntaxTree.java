@@ -1,15 +1,41 @@
 package com.diy.lisp.model;
 
-import com.diy.lisp.exception.NotImplementedException;
+import com.diy.lisp.exception.LispException;
 
 import java.util.List;
 
+/**
+ * Base class of all values in the language.
+ *
+ * Values are immutable: none of them change after they have been created, so
+ * they can be shared freely between lists, environments and threads without
+ * being copied. The only mutable thing a value refers to is the environment
+ * captured by a closure.
+ */
 public abstract class AbstractSyntaxTree {
     public abstract AbstractSyntaxTree evaluate(Environment env);
 
+    /**
+     * Call this value as a function with the (unevaluated) arguments `exps`.
+     * Only closures and special forms can be called.
+     */
     public AbstractSyntaxTree evaluate(List<AbstractSyntaxTree> exps, Environment env) {
-        throw new NotImplementedException("Not implemented yet. You'll do this as part on your own");
+        throw new LispException(String.format("%s is not a function", this));
     }
 
-    public abstract AbstractSyntaxTree copy();
+    /**
+     * Evaluates this expression in tail position of a function body. Instead
+     * of calling a closure, this may return a `TailCall` for the closure being
+     * evaluated to run in its own loop, so tail calls use no Java stack.
+     */
+    AbstractSyntaxTree evaluateTail(Environment env) {
+        return evaluate(env);
+    }
+
+    /**
+     * Calls this value in tail position, like `evaluateTail(env)`.
+     */
+    AbstractSyntaxTree evaluateTail(List<AbstractSyntaxTree> exps, Environment env) {
+        return evaluate(exps, env);
+    }
 }
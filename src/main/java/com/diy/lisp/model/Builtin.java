@@ -0,0 +1,94 @@
+package com.diy.lisp.model;
+
+import com.diy.lisp.exception.LispException;
+
+/**
+ * A function of the language written in Java, taking a fixed number of
+ * arguments; see `Builtins`.
+ *
+ * The Java function takes its arguments one by one, and the entry point for
+ * its number of arguments hands them straight over, so a call from a node or
+ * the bytecode engine makes no array.
+ */
+public final class Builtin extends Procedure {
+
+    interface Function1 {
+        AbstractSyntaxTree apply(AbstractSyntaxTree a);
+    }
+
+    interface Function2 {
+        AbstractSyntaxTree apply(AbstractSyntaxTree a, AbstractSyntaxTree b);
+    }
+
+    interface Function3 {
+        AbstractSyntaxTree apply(AbstractSyntaxTree a, AbstractSyntaxTree b, AbstractSyntaxTree c);
+    }
+
+    public final Symbol name;
+    private final int arity;
+    private final Function1 function1;
+    private final Function2 function2;
+    private final Function3 function3;
+
+    Builtin(Symbol name, Function1 function) {
+        this(name, 1, function, null, null);
+    }
+
+    Builtin(Symbol name, Function2 function) {
+        this(name, 2, null, function, null);
+    }
+
+    Builtin(Symbol name, Function3 function) {
+        this(name, 3, null, null, function);
+    }
+
+    private Builtin(Symbol name, int arity, Function1 function1, Function2 function2, Function3 function3) {
+        this.name = name;
+        this.arity = arity;
+        this.function1 = function1;
+        this.function2 = function2;
+        this.function3 = function3;
+    }
+
+    @Override
+    public AbstractSyntaxTree call1(AbstractSyntaxTree a) {
+        checkArguments(1);
+        return function1.apply(a);
+    }
+
+    @Override
+    public AbstractSyntaxTree call2(AbstractSyntaxTree a, AbstractSyntaxTree b) {
+        checkArguments(2);
+        return function2.apply(a, b);
+    }
+
+    @Override
+    public AbstractSyntaxTree call3(AbstractSyntaxTree a, AbstractSyntaxTree b, AbstractSyntaxTree c) {
+        checkArguments(3);
+        return function3.apply(a, b, c);
+    }
+
+    @Override
+    AbstractSyntaxTree call(AbstractSyntaxTree[] args) {
+        switch (arity) {
+            case 1:
+                return function1.apply(args[0]);
+            case 2:
+                return function2.apply(args[0], args[1]);
+            default:
+                return function3.apply(args[0], args[1], args[2]);
+        }
+    }
+
+    @Override
+    void checkArguments(int count) {
+        if (count != arity)
+            throw new LispException(String.format("Wrong number of arguments to %s: expected %d, got %d",
+                    name, arity, count));
+    }
+
+    @Override
+    public String toString() {
+        return "[Builtin " + name + "]";
+    }
+}
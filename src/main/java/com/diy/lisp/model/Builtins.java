@@ -0,0 +1,259 @@
+package com.diy.lisp.model;
+
+import com.diy.lisp.exception.LispException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import static com.diy.lisp.model.SpecialForms.PLUS;
+import static com.diy.lisp.model.SpecialForms.arithmetic;
+import static com.diy.lisp.model.SpecialForms.isTrue;
+import static com.diy.lisp.model.Symbol.symbol;
+
+/**
+ * The functions of the language written in Java, by name.
+ *
+ * They are there in every global environment without being defined: a name
+ * not bound anywhere is looked up here last, see `Environment.lookup`. A
+ * definition of the same name hides the builtin, so a library of its own
+ * can still define `map` or `length` in Lisp.
+ *
+ * The list functions work on lists, strings and lazy sequences, walking a
+ * sequence once without keeping its elements, and call their function
+ * arguments without going through the evaluator.
+ */
+final class Builtins {
+
+    private static final Map<Symbol, Builtin> BUILTINS = new HashMap<>();
+
+    static {
+        define("reduce", Builtins::reduce);
+        define("reverse", Builtins::reverse);
+        define("length", Builtins::length);
+        define("sum", Builtins::sum);
+        define("range", Builtins::range);
+        define("append", Builtins::append);
+        define("filter", Builtins::filter);
+        define("map", Builtins::map);
+        define("sort", Builtins::sort);
+        define("pmap", (fn, lst) -> Parallel.map(procedure("pmap", fn), toArray(elements("pmap", lst))));
+        define("pfilter", (pred, lst) -> Parallel.filter(procedure("pfilter", pred), toArray(elements("pfilter", lst))));
+        define("preduce",
+                (fn, acc, lst) -> Parallel.reduce(procedure("preduce", fn), acc, toArray(elements("preduce", lst))));
+        define("memoize", fn -> new Memoized(procedure("memoize", fn)));
+        define("await", value -> task("await", value).await());
+        define("chan", Builtins::chan);
+        define("send", (c, value) -> channel("send", c).send(value));
+        define("recv", c -> channel("recv", c).recv());
+    }
+
+    private Builtins() {
+    }
+
+    /**
+     * The builtin named `name`, or null.
+     */
+    static Builtin get(Symbol name) {
+        return BUILTINS.get(name);
+    }
+
+    static AbstractSyntaxTree reduce(AbstractSyntaxTree function, AbstractSyntaxTree acc, AbstractSyntaxTree lst) {
+        Iterator<AbstractSyntaxTree> elements = elements("reduce", lst).iterator();
+        if (!elements.hasNext())
+            return acc;
+
+        Procedure fn = procedure("reduce", function);
+        while (elements.hasNext())
+            acc = fn.call2(acc, elements.next());
+        return acc;
+    }
+
+    static AbstractSyntaxTree reverse(AbstractSyntaxTree lst) {
+        SList result = SList.list();
+        for (AbstractSyntaxTree x : elements("reverse", lst))
+            result = result.cons(x);
+        return result;
+    }
+
+    static AbstractSyntaxTree length(AbstractSyntaxTree lst) {
+        if (lst instanceof SList)
+            return Int.number(((SList) lst).size());
+        if (lst instanceof Str)
+            return Int.number(((Str) lst).length());
+
+        long length = 0;
+        for (AbstractSyntaxTree ignored : elements("length", lst))
+            length++;
+        return Int.number(length);
+    }
+
+    static AbstractSyntaxTree sum(AbstractSyntaxTree lst) {
+        AbstractSyntaxTree acc = Int.number(0);
+        for (AbstractSyntaxTree x : elements("sum", lst))
+            acc = arithmetic(PLUS, acc, x);
+        return acc;
+    }
+
+    static AbstractSyntaxTree range(AbstractSyntaxTree start, AbstractSyntaxTree end) {
+        Int a = number("range", start), one = Int.number(1);
+        SList result = SList.list();
+        for (Int x = number("range", end); !a.greaterThan(x); x = x.subtract(one))
+            result = result.cons(x);
+        return result;
+    }
+
+    /**
+     * The elements of `a` consed onto `b` from the last, so `b` can be a
+     * list or a sequence, or a string when `a` holds strings.
+     */
+    static AbstractSyntaxTree append(AbstractSyntaxTree a, AbstractSyntaxTree b) {
+        AbstractSyntaxTree[] values = toArray(elements("append", a));
+        AbstractSyntaxTree result = b;
+        for (int i = values.length - 1; i >= 0; i--)
+            result = SpecialForms.cons(values[i], result);
+        return result;
+    }
+
+    static AbstractSyntaxTree filter(AbstractSyntaxTree predicate, AbstractSyntaxTree lst) {
+        List<AbstractSyntaxTree> values = new ArrayList<>();
+        Procedure pred = null;
+        for (AbstractSyntaxTree x : elements("filter", lst)) {
+            if (pred == null)
+                pred = procedure("filter", predicate);
+            if (isTrue(pred.call1(x)))
+                values.add(x);
+        }
+        return SList.list(values);
+    }
+
+    static AbstractSyntaxTree map(AbstractSyntaxTree function, AbstractSyntaxTree lst) {
+        AbstractSyntaxTree[] values = toArray(elements("map", lst));
+        if (values.length == 0)
+            return SList.list();
+
+        Procedure fn = procedure("map", function);
+        for (int i = 0; i < values.length; i++)
+            values[i] = fn.call1(values[i]);
+        return SList.list(values);
+    }
+
+    /**
+     * Sorts numbers with the library's TimSort, which is stable, so equal
+     * elements keep their order. A list of one element is sorted whatever
+     * that element is.
+     */
+    static AbstractSyntaxTree sort(AbstractSyntaxTree lst) {
+        AbstractSyntaxTree[] values = toArray(elements("sort", lst));
+        if (values.length <= 1)
+            return SList.list(values);
+
+        Int[] numbers = new Int[values.length];
+        for (int i = 0; i < values.length; i++)
+            numbers[i] = number("sort", values[i]);
+        Arrays.sort(numbers, (x, y) -> x.greaterThan(y) ? 1 : y.greaterThan(x) ? -1 : 0);
+        return SList.list(numbers);
+    }
+
+    static AbstractSyntaxTree chan(AbstractSyntaxTree capacity) {
+        if (!Int.isFixnum(capacity) || ((Int) capacity).value() < 0 || ((Int) capacity).value() > Integer.MAX_VALUE)
+            throw new LispException(String.format("chan expects a capacity, got %s", capacity));
+        return new Channel((int) ((Int) capacity).value());
+    }
+
+    /**
+     * The elements of a list, string or lazy sequence, or null for other
+     * values. The elements of a string are its characters, as strings.
+     */
+    static Iterable<AbstractSyntaxTree> elements(AbstractSyntaxTree value) {
+        if (value instanceof SList)
+            return (SList) value;
+        if (value instanceof Seq)
+            return (Seq) value;
+        if (value instanceof Str)
+            return () -> characters((Str) value);
+        return null;
+    }
+
+    private static Iterable<AbstractSyntaxTree> elements(String function, AbstractSyntaxTree value) {
+        Iterable<AbstractSyntaxTree> elements = elements(value);
+        if (elements == null)
+            throw new LispException(String.format("%s expects a list, got %s", function, value));
+        return elements;
+    }
+
+    static AbstractSyntaxTree[] toArray(Iterable<AbstractSyntaxTree> elements) {
+        if (!(elements instanceof SList)) {
+            List<AbstractSyntaxTree> values = new ArrayList<>();
+            elements.forEach(values::add);
+            return values.toArray(new AbstractSyntaxTree[0]);
+        }
+
+        SList list = (SList) elements;
+        AbstractSyntaxTree[] values = new AbstractSyntaxTree[list.size()];
+        int i = 0;
+        for (AbstractSyntaxTree x : list)
+            values[i++] = x;
+        return values;
+    }
+
+    static Procedure procedure(String function, AbstractSyntaxTree value) {
+        if (!(value instanceof Procedure))
+            throw new LispException(String.format("%s expects a function, got %s", function, value));
+        return (Procedure) value;
+    }
+
+    private static Task task(String function, AbstractSyntaxTree value) {
+        if (!(value instanceof Task))
+            throw new LispException(String.format("%s expects a task, got %s", function, value));
+        return (Task) value;
+    }
+
+    private static Channel channel(String function, AbstractSyntaxTree value) {
+        if (!(value instanceof Channel))
+            throw new LispException(String.format("%s expects a channel, got %s", function, value));
+        return (Channel) value;
+    }
+
+    private static Int number(String function, AbstractSyntaxTree value) {
+        if (!(value instanceof Int))
+            throw new LispException(String.format("%s expects numbers, got %s", function, value));
+        return (Int) value;
+    }
+
+    private static Iterator<AbstractSyntaxTree> characters(Str str) {
+        return new Iterator<AbstractSyntaxTree>() {
+            private Str rest = str;
+
+            @Override
+            public boolean hasNext() {
+                return !rest.isEmpty();
+            }
+
+            @Override
+            public AbstractSyntaxTree next() {
+                if (rest.isEmpty())
+                    throw new NoSuchElementException();
+                Str head = rest.head();
+                rest = rest.tail();
+                return head;
+            }
+        };
+    }
+
+    private static void define(String name, Builtin.Function1 function) {
+        BUILTINS.put(symbol(name), new Builtin(symbol(name), function));
+    }
+
+    private static void define(String name, Builtin.Function2 function) {
+        BUILTINS.put(symbol(name), new Builtin(symbol(name), function));
+    }
+
+    private static void define(String name, Builtin.Function3 function) {
+        BUILTINS.put(symbol(name), new Builtin(symbol(name), function));
+    }
+}
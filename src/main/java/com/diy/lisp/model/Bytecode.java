@@ -0,0 +1,277 @@
+package com.diy.lisp.model;
+
+import java.util.List;
+
+import static com.diy.lisp.model.SpecialForms.*;
+
+/**
+ * A function body compiled for the stack machine of the bytecode engine; see
+ * `BytecodeCompiler`.
+ *
+ * Instructions are ints, each followed by its operands, all in one array.
+ * Values referred to by instructions live in a constant pool, and are named by
+ * their index in it. Intermediate values go on a stack, and variables stay in
+ * the frames, as with the other engine.
+ *
+ * The body is always compiled for tail position: a call it ends with is
+ * returned as a `TailCall`, for the calling closure to make.
+ */
+final class Bytecode extends Node {
+
+    /** constant: push constants[constant] */
+    static final int CONST = 0;
+    /** depth slot symbol: push a local variable, see `LocalReadNode` */
+    static final int LOCAL = 1;
+    /** read: push the variable read by the `GlobalReadNode` constants[read], which caches it */
+    static final int GLOBAL = 2;
+    /** target: continue at target */
+    static final int JUMP = 3;
+    /** target: pop a value, and continue at target if it is #f */
+    static final int JUMP_IF_FALSE = 4;
+    /** replace the top value with the result of `atom` on it; likewise for the next three */
+    static final int ATOM = 5;
+    static final int HEAD = 6;
+    static final int TAIL = 7;
+    static final int EMPTY = 8;
+    /** pop two values, and push the result of `eq` on them; likewise for the next seven */
+    static final int EQ = 9;
+    static final int CONS = 10;
+    static final int ADD = 11;
+    static final int SUBTRACT = 12;
+    static final int MULTIPLY = 13;
+    static final int DIVIDE = 14;
+    static final int MOD = 15;
+    static final int GREATER = 16;
+    /**
+     * count exps end: check the function on top of the stack, which is about
+     * to be called with count arguments. A closure or builtin is left there,
+     * and its arguments are evaluated by the following instructions. Anything else is
+     * replaced by the result of calling it with the unevaluated constants[exps],
+     * and execution continues at end, past the call.
+     */
+    static final int CALLEE = 17;
+    /** count exps end: `CALLEE` in tail position */
+    static final int CALLEE_TAIL = 18;
+    /** count: pop count arguments and a procedure, and push the result of the call */
+    static final int CALL = 19;
+    /** count: pop count arguments and a procedure, and return the call, as a `TailCall` for a closure */
+    static final int TAIL_CALL = 20;
+    /** size names: make an array frame for constants[names] the current frame */
+    static final int FRAME = 21;
+    /** slot: pop a value into slot of the current frame */
+    static final int STORE = 22;
+    /** go back to the frame the current one was made in */
+    static final int POP_FRAME = 23;
+    /** lambda: push a closure of constants[lambda] over the current frame */
+    static final int LAMBDA = 24;
+    /** node: push the result of running constants[node] */
+    static final int NODE = 25;
+    /** node: push the result of running constants[node] in tail position */
+    static final int NODE_TAIL = 26;
+    /** return the top value */
+    static final int RETURN = 27;
+
+    private final int[] code;
+    private final Object[] constants;
+    private final int maxStack;
+
+    Bytecode(int[] code, Object[] constants, int maxStack) {
+        this.code = code;
+        this.constants = constants;
+        this.maxStack = maxStack;
+    }
+
+    @Override
+    AbstractSyntaxTree execute(Environment frame) {
+        AbstractSyntaxTree result = executeTail(frame);
+        return result instanceof TailCall ? result.evaluate(frame) : result;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    AbstractSyntaxTree executeTail(Environment frame) {
+        final int[] code = this.code;
+        final Object[] constants = this.constants;
+        final AbstractSyntaxTree[] stack = new AbstractSyntaxTree[maxStack];
+        int sp = 0;
+        int pc = 0;
+
+        while (true) {
+            switch (code[pc++]) {
+                case CONST:
+                    stack[sp++] = (AbstractSyntaxTree) constants[code[pc++]];
+                    break;
+
+                case LOCAL: {
+                    int depth = code[pc++];
+                    int slot = code[pc++];
+                    int symbol = code[pc++];
+                    Environment env = frame;
+                    for (int i = 0; i < depth; i++)
+                        env = env.parent;
+                    AbstractSyntaxTree value = env.slots[slot];
+                    stack[sp++] = value != null ? value : frame.lookup((Symbol) constants[symbol]);
+                    break;
+                }
+
+                case GLOBAL:
+                    stack[sp++] = ((Nodes.GlobalReadNode) constants[code[pc++]]).execute(frame);
+                    break;
+
+                case JUMP:
+                    pc = code[pc];
+                    break;
+
+                case JUMP_IF_FALSE: {
+                    int target = code[pc++];
+                    if (stack[--sp] == Bool.FALSE)
+                        pc = target;
+                    break;
+                }
+
+                case ATOM:
+                    stack[sp - 1] = atom(stack[sp - 1]);
+                    break;
+                case HEAD:
+                    stack[sp - 1] = head(stack[sp - 1]);
+                    break;
+                case TAIL:
+                    stack[sp - 1] = tail(stack[sp - 1]);
+                    break;
+                case EMPTY:
+                    stack[sp - 1] = empty(stack[sp - 1]);
+                    break;
+
+                case EQ:
+                    sp--;
+                    stack[sp - 1] = eq(stack[sp - 1], stack[sp]);
+                    break;
+                case CONS:
+                    sp--;
+                    stack[sp - 1] = cons(stack[sp - 1], stack[sp]);
+                    break;
+
+                case ADD:
+                case SUBTRACT:
+                case MULTIPLY:
+                case DIVIDE:
+                case MOD:
+                case GREATER: {
+                    int operation = code[pc - 1];
+                    AbstractSyntaxTree b = stack[--sp];
+                    AbstractSyntaxTree a = stack[sp - 1];
+                    stack[sp - 1] = a instanceof Int && b instanceof Int
+                            ? arithmetic(operation, (Int) a, (Int) b)
+                            : SpecialForms.arithmetic(operator(operation), a, b);
+                    break;
+                }
+
+                case CALLEE:
+                case CALLEE_TAIL: {
+                    boolean tail = code[pc - 1] == CALLEE_TAIL;
+                    int count = code[pc++];
+                    int exps = code[pc++];
+                    int end = code[pc++];
+                    AbstractSyntaxTree callee = stack[sp - 1];
+                    if (callee instanceof Procedure) {
+                        ((Procedure) callee).checkArguments(count);
+                    } else {
+                        List<AbstractSyntaxTree> arguments = (List<AbstractSyntaxTree>) constants[exps];
+                        stack[sp - 1] = tail ? callee.evaluateTail(arguments, frame) : callee.evaluate(arguments, frame);
+                        pc = end;
+                    }
+                    break;
+                }
+
+                case CALL:
+                case TAIL_CALL: {
+                    boolean tail = code[pc - 1] == TAIL_CALL;
+                    int count = code[pc++];
+                    if (!tail && count <= 4) {
+                        sp -= count + 1;
+                        stack[sp] = call((Procedure) stack[sp], count, stack, sp + 1);
+                        sp++;
+                        break;
+                    }
+
+                    AbstractSyntaxTree[] args = new AbstractSyntaxTree[count];
+                    sp -= count;
+                    System.arraycopy(stack, sp, args, 0, count);
+                    Procedure procedure = (Procedure) stack[--sp];
+                    if (tail)
+                        return procedure.tailCall(args);
+                    stack[sp++] = procedure.call(args);
+                    break;
+                }
+
+                case FRAME: {
+                    int size = code[pc++];
+                    frame = new Environment(frame, (Symbol[]) constants[code[pc++]], new AbstractSyntaxTree[size]);
+                    break;
+                }
+
+                case STORE:
+                    frame.slots[code[pc++]] = stack[--sp];
+                    break;
+
+                case POP_FRAME:
+                    frame = frame.parent;
+                    break;
+
+                case LAMBDA:
+                    stack[sp++] = new Closure(frame, (Lambda) constants[code[pc++]]);
+                    break;
+
+                case NODE:
+                    stack[sp++] = ((Node) constants[code[pc++]]).execute(frame);
+                    break;
+
+                case NODE_TAIL:
+                    stack[sp++] = ((Node) constants[code[pc++]]).executeTail(frame);
+                    break;
+
+                case RETURN:
+                    return stack[sp - 1];
+
+                default:
+                    throw new IllegalStateException("Unknown instruction " + code[pc - 1] + " at " + (pc - 1));
+            }
+        }
+    }
+
+    /**
+     * Calls `procedure` with the `count` arguments on the stack from `from`,
+     * through the entry point for their number.
+     */
+    private static AbstractSyntaxTree call(Procedure procedure, int count, AbstractSyntaxTree[] stack, int from) {
+        switch (count) {
+            case 0: return procedure.call0();
+            case 1: return procedure.call1(stack[from]);
+            case 2: return procedure.call2(stack[from], stack[from + 1]);
+            case 3: return procedure.call3(stack[from], stack[from + 1], stack[from + 2]);
+            default: return procedure.call4(stack[from], stack[from + 1], stack[from + 2], stack[from + 3]);
+        }
+    }
+
+    private static AbstractSyntaxTree arithmetic(int operation, Int a, Int b) {
+        switch (operation) {
+            case ADD: return a.add(b);
+            case SUBTRACT: return a.subtract(b);
+            case MULTIPLY: return a.multiply(b);
+            case DIVIDE: return a.divide(b);
+            case MOD: return a.mod(b);
+            default: return Bool.bool(a.greaterThan(b));
+        }
+    }
+
+    static Symbol operator(int operation) {
+        switch (operation) {
+            case ADD: return PLUS;
+            case SUBTRACT: return MINUS;
+            case MULTIPLY: return TIMES;
+            case DIVIDE: return SpecialForms.DIVIDE;
+            case MOD: return SpecialForms.MOD;
+            default: return SpecialForms.GREATER;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.diy.lisp.model;
+
+import com.diy.lisp.model.Nodes.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.diy.lisp.model.Bytecode.*;
+
+/**
+ * Translates the node tree of a function into `Bytecode`, for the bytecode
+ * engine. Nodes with nothing to gain from it, like `define`, are kept and run
+ * from the bytecode.
+ */
+final class BytecodeCompiler {
+
+    private int[] code = new int[32];
+    private int length;
+    private int depth;
+    private int maxStack;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> indexes = new IdentityHashMap<>();
+
+    private BytecodeCompiler() {
+    }
+
+    static Bytecode compile(Lambda lambda) {
+        BytecodeCompiler compiler = new BytecodeCompiler();
+        compiler.emit(lambda.tree, true);
+        compiler.instruction(RETURN);
+        return new Bytecode(Arrays.copyOf(compiler.code, compiler.length),
+                compiler.constants.toArray(), compiler.maxStack);
+    }
+
+    /**
+     * Emits code leaving the value of `node` on the stack.
+     */
+    private void emit(Node node, boolean tail) {
+        if (node instanceof Body)
+            emit(((Body) node).body, tail);
+        else if (node instanceof ConstNode)
+            push(CONST, constant(((ConstNode) node).value));
+        else if (node instanceof LocalReadNode)
+            localRead((LocalReadNode) node);
+        else if (node instanceof GlobalReadNode)
+            push(GLOBAL, constant(node));
+        else if (node instanceof IfNode)
+            ifNode((IfNode) node, tail);
+        else if (node instanceof CondNode)
+            condNode((CondNode) node, tail);
+        else if (node instanceof LetNode)
+            letNode((LetNode) node, tail);
+        else if (node instanceof LambdaNode)
+            push(LAMBDA, constant(((LambdaNode) node).lambda));
+        else if (node instanceof UnaryNode)
+            unaryNode((UnaryNode) node);
+        else if (node instanceof EqNode)
+            binaryNode((BinaryNode) node, EQ);
+        else if (node instanceof ConsNode)
+            binaryNode((BinaryNode) node, CONS);
+        else if (node instanceof ArithmeticNode)
+            binaryNode((BinaryNode) node, operation(((ArithmeticNode) node).operator));
+        else if (node instanceof IntArithmeticNode)
+            binaryNode((BinaryNode) node, operation(((IntArithmeticNode) node).operator));
+        else if (node instanceof GenericArithmeticNode)
+            binaryNode((BinaryNode) node, operation(((GenericArithmeticNode) node).operator));
+        else if (node instanceof AbstractCallNode)
+            call((AbstractCallNode) node, tail);
+        else
+            push(tail ? NODE_TAIL : NODE, constant(node));
+    }
+
+    private void localRead(LocalReadNode node) {
+        instruction(LOCAL, node.depth, node.slot, constant(node.symbol));
+        grow(1);
+    }
+
+    private void ifNode(IfNode node, boolean tail) {
+        emit(node.test, false);
+        int otherwise = jump(JUMP_IF_FALSE);
+        depth--;
+        emit(node.then, tail);
+        int done = jump(JUMP);
+        depth--;
+        patch(otherwise);
+        emit(node.otherwise, tail);
+        patch(done);
+    }
+
+    private void condNode(CondNode node, boolean tail) {
+        int[] done = new int[node.tests.length];
+        for (int i = 0; i < node.tests.length; i++) {
+            emit(node.tests[i], false);
+            int next = jump(JUMP_IF_FALSE);
+            depth--;
+            emit(node.bodies[i], tail);
+            done[i] = jump(JUMP);
+            depth--;
+            patch(next);
+        }
+        push(CONST, constant(Bool.FALSE));
+        for (int jump : done)
+            patch(jump);
+    }
+
+    private void letNode(LetNode node, boolean tail) {
+        instruction(FRAME, node.names.length, constant(node.names));
+        for (int i = 0; i < node.values.length; i++) {
+            emit(node.values[i], false);
+            instruction(STORE, i);
+            depth--;
+        }
+        emit(node.body, tail);
+        instruction(POP_FRAME);
+    }
+
+    private void unaryNode(UnaryNode node) {
+        emit(node.argument, false);
+        instruction(node instanceof AtomNode ? ATOM
+                : node instanceof HeadNode ? HEAD
+                : node instanceof TailNode ? TAIL
+                : EMPTY);
+    }
+
+    private void binaryNode(BinaryNode node, int operation) {
+        emit(node.left, false);
+        emit(node.right, false);
+        instruction(operation);
+        depth--;
+    }
+
+    /**
+     * A call: closures and builtins get the evaluated arguments, anything
+     * else the unevaluated ones, as in `GenericCallNode`.
+     */
+    private void call(AbstractCallNode node, boolean tail) {
+        emit(node.function, false);
+        instruction(tail ? CALLEE_TAIL : CALLEE, node.arguments.length, constant(node.exps), 0);
+        int end = length - 1;
+        for (Node argument : node.arguments)
+            emit(argument, false);
+        instruction(tail ? TAIL_CALL : CALL, node.arguments.length);
+        depth -= node.arguments.length;
+        code[end] = length;
+    }
+
+    private static int operation(Symbol operator) {
+        if (operator == SpecialForms.PLUS) return ADD;
+        if (operator == SpecialForms.MINUS) return SUBTRACT;
+        if (operator == SpecialForms.TIMES) return MULTIPLY;
+        if (operator == SpecialForms.DIVIDE) return DIVIDE;
+        if (operator == SpecialForms.MOD) return MOD;
+        return GREATER;
+    }
+
+    /**
+     * Emits a jump, returning where its target goes for `patch`.
+     */
+    private int jump(int instruction) {
+        instruction(instruction, 0);
+        return length - 1;
+    }
+
+    private void patch(int jump) {
+        code[jump] = length;
+    }
+
+    private void push(int instruction, int operand) {
+        instruction(instruction, operand);
+        grow(1);
+    }
+
+    private void grow(int values) {
+        depth += values;
+        maxStack = Math.max(maxStack, depth);
+    }
+
+    private void instruction(int... words) {
+        if (length + words.length > code.length)
+            code = Arrays.copyOf(code, Math.max(code.length * 2, length + words.length));
+        System.arraycopy(words, 0, code, length, words.length);
+        length += words.length;
+    }
+
+    private int constant(Object value) {
+        Integer index = indexes.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            indexes.put(value, index);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,53 @@
+package com.diy.lisp.model;
+
+import com.diy.lisp.exception.LispException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+
+/**
+ * A bounded queue for passing values between tasks, made by `chan`. `send`
+ * waits while the channel is full, and `recv` while it is empty. A channel
+ * of capacity 0 has no room at all: each `send` waits for a `recv` to take
+ * its value.
+ */
+public final class Channel extends AbstractSyntaxTree {
+
+    private final BlockingQueue<AbstractSyntaxTree> queue;
+
+    public Channel(int capacity) {
+        if (capacity < 0)
+            throw new LispException(String.format("Cannot make a channel of capacity %d", capacity));
+        this.queue = capacity == 0 ? new SynchronousQueue<>() : new ArrayBlockingQueue<>(capacity);
+    }
+
+    public AbstractSyntaxTree send(AbstractSyntaxTree value) {
+        try {
+            queue.put(value);
+            return value;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LispException("Interrupted while sending on a channel");
+        }
+    }
+
+    public AbstractSyntaxTree recv() {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LispException("Interrupted while receiving on a channel");
+        }
+    }
+
+    @Override
+    public AbstractSyntaxTree evaluate(Environment env) {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "[Channel]";
+    }
+}
@@ -0,0 +1,454 @@
+package com.diy.lisp.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer for JVM class files, just enough for the code `Jit`
+ * generates: a class with methods, and no fields, interfaces or debug
+ * information.
+ *
+ * Classes are written as version 49 (Java 5), which the JVM verifies by type
+ * inference, so no stack map frames have to be computed. The maximum stack
+ * size is worked out as instructions are added.
+ */
+final class ClassFile {
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int access;
+    private final int thisClass;
+    private final int superClass;
+    private final List<Code> methods = new ArrayList<>();
+
+    ClassFile(int access, String name, String superName) {
+        this.access = access;
+        this.thisClass = classRef(name);
+        this.superClass = classRef(superName);
+    }
+
+    /**
+     * Adds a method. Its instructions are then added to the returned code.
+     */
+    Code method(int access, String name, String descriptor, int parameterSlots) {
+        Code code = new Code(access, utf8(name), utf8(descriptor), parameterSlots);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int code = utf8("Code");
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (Code method : methods)
+                method.writeTo(out, code);
+            out.writeShort(0);
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int entry(String key, Entry writer) {
+        Integer index = entries.get(key);
+        if (index != null)
+            return index;
+
+        try {
+            writer.write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        entries.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private interface Entry {
+        void write() throws IOException;
+    }
+
+    private int utf8(String value) {
+        return entry("U" + value, () -> {
+            poolOut.writeByte(1);
+            poolOut.writeUTF(value);
+        });
+    }
+
+    private int integer(int value) {
+        return entry("I" + value, () -> {
+            poolOut.writeByte(3);
+            poolOut.writeInt(value);
+        });
+    }
+
+    private int classRef(String name) {
+        int utf8 = utf8(name);
+        return entry("C" + name, () -> {
+            poolOut.writeByte(7);
+            poolOut.writeShort(utf8);
+        });
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        int n = utf8(name);
+        int d = utf8(descriptor);
+        return entry("N" + name + ' ' + descriptor, () -> {
+            poolOut.writeByte(12);
+            poolOut.writeShort(n);
+            poolOut.writeShort(d);
+        });
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int c = classRef(owner);
+        int nt = nameAndType(name, descriptor);
+        return entry("M" + tag + owner + '.' + name + descriptor, () -> {
+            poolOut.writeByte(tag);
+            poolOut.writeShort(c);
+            poolOut.writeShort(nt);
+        });
+    }
+
+    /**
+     * A position in the code that jumps can refer to before it is known.
+     */
+    static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<int[]> jumps = new ArrayList<>();
+    }
+
+    /**
+     * The instructions of one method.
+     */
+    final class Code {
+        private final int access;
+        private final int name;
+        private final int descriptor;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private final List<Label> labels = new ArrayList<>();
+        private int stack;
+        private int maxStack;
+        private int locals;
+        private int maxLocals;
+
+        private Code(int access, int name, int descriptor, int parameterSlots) {
+            this.access = access;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.locals = this.maxLocals = parameterSlots;
+        }
+
+        /**
+         * Reserves a local variable slot, to be given back with `free`
+         * in reverse order of allocation.
+         */
+        int allocate() {
+            maxLocals = Math.max(maxLocals, locals + 1);
+            return locals++;
+        }
+
+        void free(int local) {
+            if (local != locals - 1)
+                throw new IllegalStateException("Locals must be freed in reverse order");
+            locals--;
+        }
+
+        Code aload(int local) {
+            return local(0x19, local, 1);
+        }
+
+        Code astore(int local) {
+            return local(0x3A, local, -1);
+        }
+
+        Code push(int value) {
+            if (value >= -1 && value <= 5)
+                return op(0x03 + value, 1);
+            if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(0x10, 1);
+                return u1(value);
+            }
+            if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                op(0x11, 1);
+                return u2(value);
+            }
+            int index = integer(value);
+            op(0x13, 1);
+            return u2(index);
+        }
+
+        Code dup() {
+            return op(0x59, 1);
+        }
+
+        Code pop() {
+            return op(0x57, -1);
+        }
+
+        Code aaload() {
+            return op(0x32, -1);
+        }
+
+        Code aastore() {
+            return op(0x53, -3);
+        }
+
+        Code lload(int local) {
+            return local(0x16, local, 2);
+        }
+
+        Code lstore(int local) {
+            return local(0x37, local, -2);
+        }
+
+        Code i2l() {
+            return op(0x85, 1);
+        }
+
+        Code ladd() {
+            return op(0x61, -2);
+        }
+
+        Code lsub() {
+            return op(0x65, -2);
+        }
+
+        Code lmul() {
+            return op(0x69, -2);
+        }
+
+        Code lcmp() {
+            return op(0x94, -3);
+        }
+
+        Code areturn() {
+            return op(0xB0, -1);
+        }
+
+        Code vreturn() {
+            return op(0xB1, 0);
+        }
+
+        Code newObject(String type) {
+            return typed(0xBB, type, 1);
+        }
+
+        Code anewarray(String type) {
+            return typed(0xBD, type, 0);
+        }
+
+        Code checkcast(String type) {
+            return typed(0xC0, type, 0);
+        }
+
+        Code instanceOf(String type) {
+            return typed(0xC1, type, 0);
+        }
+
+        Code getfield(String owner, String name, String descriptor) {
+            return member(0xB4, owner, name, descriptor, size(descriptor.charAt(0)) - 1);
+        }
+
+        Code getstatic(String owner, String name, String descriptor) {
+            return member(0xB2, owner, name, descriptor, size(descriptor.charAt(0)));
+        }
+
+        Code invokevirtual(String owner, String name, String descriptor) {
+            return member(0xB6, owner, name, descriptor, invokeDelta(descriptor) - 1);
+        }
+
+        Code invokespecial(String owner, String name, String descriptor) {
+            return member(0xB7, owner, name, descriptor, invokeDelta(descriptor) - 1);
+        }
+
+        Code invokestatic(String owner, String name, String descriptor) {
+            return member(0xB8, owner, name, descriptor, invokeDelta(descriptor));
+        }
+
+        Code ifeq(Label label) {
+            return jump(0x99, label, -1);
+        }
+
+        Code ifne(Label label) {
+            return jump(0x9A, label, -1);
+        }
+
+        Code ifgt(Label label) {
+            return jump(0x9D, label, -1);
+        }
+
+        Code ifIcmpne(Label label) {
+            return jump(0xA0, label, -2);
+        }
+
+        Code ifAcmpeq(Label label) {
+            return jump(0xA5, label, -2);
+        }
+
+        Code ifnonnull(Label label) {
+            return jump(0xC7, label, -1);
+        }
+
+        Code goTo(Label label) {
+            return jump(0xA7, label, 0);
+        }
+
+        /**
+         * Places `label` here. Code following a `goTo` is only reached
+         * through jumps, so it starts with the stack those jumps had.
+         */
+        Code mark(Label label) {
+            label.position = code.size();
+            if (label.stack >= 0)
+                stack = label.stack;
+            else
+                label.stack = stack;
+            labels.add(label);
+            return this;
+        }
+
+        private Code jump(int opcode, Label label, int delta) {
+            int position = code.size();
+            op(opcode, delta);
+            label.stack = stack;
+            label.jumps.add(new int[]{position, code.size()});
+            return u2(0);
+        }
+
+        /**
+         * A load or store of a local. Locals past 255 take the `wide` form,
+         * with a two-byte index.
+         */
+        private Code local(int opcode, int local, int delta) {
+            if (local <= 3 && (opcode == 0x19 || opcode == 0x3A))
+                return op(opcode + (opcode == 0x19 ? 0x2A - 0x19 : 0x4B - 0x3A) + local, delta);
+            if (local <= 0xFF) {
+                op(opcode, delta);
+                return u1(local);
+            }
+            if (local > 0xFFFF)
+                throw new IllegalStateException("Too many locals");
+            u1(0xC4);
+            op(opcode, delta);
+            return u2(local);
+        }
+
+        private Code typed(int opcode, String type, int delta) {
+            int index = classRef(type);
+            op(opcode, delta);
+            return u2(index);
+        }
+
+        private Code member(int opcode, String owner, String name, String descriptor, int delta) {
+            int tag = opcode == 0xB4 || opcode == 0xB2 ? 9 : 10;
+            int index = memberRef(tag, owner, name, descriptor);
+            op(opcode, delta);
+            return u2(index);
+        }
+
+        private Code op(int opcode, int delta) {
+            code.write(opcode);
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+            return this;
+        }
+
+        private Code u1(int value) {
+            code.write(value);
+            return this;
+        }
+
+        private Code u2(int value) {
+            code.write(value >> 8);
+            code.write(value);
+            return this;
+        }
+
+        private void writeTo(DataOutputStream out, int codeName) throws IOException {
+            byte[] bytes = code.toByteArray();
+            if (bytes.length > 0xFFFF)
+                throw new IllegalStateException("Method too large");
+            if (maxLocals > 0xFFFF)
+                throw new IllegalStateException("Too many locals");
+            for (Label label : labels) {
+                for (int[] jump : label.jumps) {
+                    int offset = label.position - jump[0];
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                        throw new IllegalStateException("Jump too far");
+                    bytes[jump[1]] = (byte) (offset >> 8);
+                    bytes[jump[1] + 1] = (byte) offset;
+                }
+            }
+
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            out.writeInt(12 + bytes.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+    }
+
+    /**
+     * Change in stack size from calling a method with `descriptor`, not
+     * counting the receiver.
+     */
+    private static int invokeDelta(String descriptor) {
+        int delta = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            delta -= size(c);
+            while (descriptor.charAt(i) == '[')
+                i++;
+            if (descriptor.charAt(i) == 'L')
+                i = descriptor.indexOf(';', i);
+            i++;
+        }
+        return delta + size(descriptor.charAt(i + 1));
+    }
+
+    private static int size(char type) {
+        switch (type) {
+            case 'V': return 0;
+            case 'J':
+            case 'D': return 2;
+            default: return 1;
+        }
+    }
+}
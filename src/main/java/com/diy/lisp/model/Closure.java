@@ -1,23 +1,113 @@
 package com.diy.lisp.model;
 
-import com.diy.lisp.exception.NotImplementedException;
+import com.diy.lisp.exception.LispException;
 
-import java.util.List;
+import java.util.HashMap;
 
-public class Closure extends AbstractSyntaxTree {
+/**
+ * A function value. The body is compiled when the closure is created, so a
+ * call just evaluates the arguments into an array frame and runs the
+ * compiled body in it; see `Compiler`.
+ *
+ * Calls in tail position don't nest: see `call`.
+ */
+public final class Closure extends Procedure {
 
+    private static final AbstractSyntaxTree[] NO_SLOTS = new AbstractSyntaxTree[0];
+
+    /**
+     * The environment the body runs in. This is the one the closure was made
+     * in, except inside function bodies: there, the closure copies just the
+     * variables it uses, so it keeps nothing else alive; see `Compiler`.
+     */
     public final Environment env;
     public final SList params;
     public final AbstractSyntaxTree body;
+    private final Lambda lambda;
+
+    /**
+     * Runs the body with `args`. A call the body makes in tail position is
+     * run here in turn, after the body has returned, rather than nested
+     * inside it.
+     */
+    @Override
+    AbstractSyntaxTree call(AbstractSyntaxTree[] args) {
+        return run(frame(args));
+    }
+
+    /*
+     * The entry points for a known number of arguments put them straight
+     * into the slots of the frame.
+     */
+
+    @Override
+    public AbstractSyntaxTree call0() {
+        checkArguments(0);
+        return run(frame(NO_SLOTS));
+    }
+
+    @Override
+    public AbstractSyntaxTree call1(AbstractSyntaxTree a) {
+        checkArguments(1);
+        return run(frame(new AbstractSyntaxTree[]{a}));
+    }
+
+    @Override
+    public AbstractSyntaxTree call2(AbstractSyntaxTree a, AbstractSyntaxTree b) {
+        checkArguments(2);
+        return run(frame(new AbstractSyntaxTree[]{a, b}));
+    }
 
     @Override
-    public AbstractSyntaxTree evaluate(Environment env) {
-        throw new NotImplementedException("Not implemented yet. You'll do this as part on your own");
+    public AbstractSyntaxTree call3(AbstractSyntaxTree a, AbstractSyntaxTree b, AbstractSyntaxTree c) {
+        checkArguments(3);
+        return run(frame(new AbstractSyntaxTree[]{a, b, c}));
     }
 
     @Override
-    public AbstractSyntaxTree evaluate(List<AbstractSyntaxTree> exps, Environment env) {
-        throw new NotImplementedException("Not implemented yet. You'll do this as part on your own");
+    public AbstractSyntaxTree call4(AbstractSyntaxTree a, AbstractSyntaxTree b, AbstractSyntaxTree c,
+                                    AbstractSyntaxTree d) {
+        checkArguments(4);
+        return run(frame(new AbstractSyntaxTree[]{a, b, c, d}));
+    }
+
+    private AbstractSyntaxTree run(Environment frame) {
+        Closure closure = this;
+        while (true) {
+            AbstractSyntaxTree result = closure.lambda.code(closure.env).executeTail(frame);
+            if (!(result instanceof TailCall))
+                return result;
+
+            TailCall call = (TailCall) result;
+            closure = call.closure;
+            frame = closure.frame(call.args);
+        }
+    }
+
+    @Override
+    AbstractSyntaxTree tailCall(AbstractSyntaxTree[] args) {
+        return new TailCall(this, args);
+    }
+
+    @Override
+    void checkArguments(int count) {
+        if (count != params.size())
+            throw new LispException(String.format("Wrong number of arguments: expected %d, got %d",
+                    params.size(), count));
+    }
+
+    /**
+     * The frame of a call. Unless the body defines variables, `args` are
+     * its slots.
+     */
+    private Environment frame(AbstractSyntaxTree[] args) {
+        if (!lambda.dynamic)
+            return new Environment(env, lambda.names, args);
+
+        HashMap<Symbol, AbstractSyntaxTree> bindings = new HashMap<>();
+        for (int i = 0; i < args.length; i++)
+            bindings.put(lambda.names[i], args[i]);
+        return env.extend(bindings);
     }
 
     /**
@@ -26,18 +116,18 @@ public class Closure extends AbstractSyntaxTree {
      */
 
     public Closure(Environment env, SList params, AbstractSyntaxTree body) {
-        this.env = env;
-        this.params = params;
-        this.body = body;
+        this(env, Compiler.lambda(params, body, Scope.of(env)));
     }
 
-    public static Closure closure(Environment env, SList params, AbstractSyntaxTree body) {
-        return new Closure(env, params, body);
+    Closure(Environment env, Lambda lambda) {
+        this.env = lambda.environment(env, this);
+        this.params = lambda.params;
+        this.body = lambda.body;
+        this.lambda = lambda;
     }
 
-    @Override
-    public AbstractSyntaxTree copy() {
-        return closure(env, (SList) params.copy(), body.copy());
+    public static Closure closure(Environment env, SList params, AbstractSyntaxTree body) {
+        return new Closure(env, params, body);
     }
 
     @Override
@@ -58,10 +148,12 @@ public class Closure extends AbstractSyntaxTree {
 
     }
 
+    /**
+     * Leaves out the environment, which may well hold this closure.
+     */
     @Override
     public int hashCode() {
-        int result = env.hashCode();
-        result = 31 * result + params.hashCode();
+        int result = params.hashCode();
         result = 31 * result + body.hashCode();
         return result;
     }
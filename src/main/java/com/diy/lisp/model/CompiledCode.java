@@ -0,0 +1,29 @@
+package com.diy.lisp.model;
+
+/**
+ * Base class of the JVM classes `Jit` generates for function bodies. Each
+ * generated class overrides `execute` and `executeTail`.
+ */
+abstract class CompiledCode extends Node {
+
+    final Lambda lambda;
+
+    /**
+     * The values the generated code refers to, by index.
+     */
+    final Object[] constants;
+
+    CompiledCode(Lambda lambda, Object[] constants) {
+        this.lambda = lambda;
+        this.constants = constants;
+    }
+
+    /**
+     * Called by the generated code when something it assumed no longer
+     * holds. The code finishes the call it is in the middle of without the
+     * assumption, and the function goes back to the node tree from then on.
+     */
+    final void deoptimize() {
+        lambda.deoptimize(this);
+    }
+}
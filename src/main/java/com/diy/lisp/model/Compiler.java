@@ -0,0 +1,215 @@
+package com.diy.lisp.model;
+
+import com.diy.lisp.model.Nodes.*;
+
+import java.util.List;
+
+import static com.diy.lisp.model.SpecialForms.*;
+
+/**
+ * Compiles function bodies into trees of `Node`s.
+ *
+ * Special forms are recognized once, here, rather than every time they are
+ * evaluated. Every symbol bound by an enclosing `lambda` or `let` is resolved
+ * to its slot in the array frame that will hold it, and the rest are looked
+ * up by name in the global environment. Nested `lambda` forms are compiled
+ * along with the body they appear in.
+ *
+ * Malformed forms are left to the tree-walking evaluator, so they report the
+ * same errors, at the same time, as before.
+ */
+final class Compiler {
+
+    private Compiler() {
+    }
+
+    static Lambda lambda(SList params, AbstractSyntaxTree body, Scope scope) {
+        return lambda(params, body, scope, -1);
+    }
+
+    /**
+     * Compiles a `lambda` form in `scope`, for a flat closure if possible:
+     * one that copies the variables of `scope` it uses when it is made. If
+     * it uses a `let` binding that is not made by then, other than the one
+     * at slot `self` the closure itself is bound to, or code left to the
+     * evaluator, it keeps the frames of `scope` instead.
+     */
+    private static Lambda lambda(SList params, AbstractSyntaxTree body, Scope scope, int self) {
+        Symbol[] names = symbols(params);
+        if (defines(body))
+            return new Lambda(params, body, names, new Body(compile(body, null)), true, null);
+
+        Scope captured = Scope.captures(scope, self);
+        Node code = compile(body, new Scope(names, captured));
+        if (captured.captures.keepFrames)
+            return new Lambda(params, body, names, new Body(compile(body, new Scope(names, scope))), false, null);
+        return new Lambda(params, body, names, new Body(code), false, captured);
+    }
+
+    static Node compile(AbstractSyntaxTree ast, Scope scope) {
+        if (ast instanceof Symbol) {
+            Node local = Scope.resolve(scope, (Symbol) ast);
+            return local != null ? local : new GlobalReadNode((Symbol) ast);
+        }
+        if (!(ast instanceof SList))
+            return new ConstNode(ast);
+
+        SList list = (SList) ast;
+        if (list.isEmpty())
+            return new InterpretedNode(list);
+        if (list.head() instanceof Symbol && isSpecialForm((Symbol) list.head()))
+            return specialForm((Symbol) list.head(), list, scope);
+
+        List<AbstractSyntaxTree> exps = list.tail().asList();
+        return new CallNode(compile(list.head(), scope), compileAll(exps, scope), exps);
+    }
+
+    private static Node specialForm(Symbol form, SList list, Scope scope) {
+        int size = list.size();
+
+        if (form == QUOTE && size == 2)
+            return new ConstNode(list.get(1));
+        if (form == ATOM && size == 2)
+            return new AtomNode(compile(list.get(1), scope));
+        if (form == EQ && size == 3)
+            return new EqNode(compile(list.get(1), scope), compile(list.get(2), scope));
+        if ((form == PLUS || form == MINUS || form == TIMES || form == DIVIDE || form == MOD || form == GREATER)
+                && size == 3)
+            return new ArithmeticNode(form, compile(list.get(1), scope), compile(list.get(2), scope));
+        if (form == IF && size == 4)
+            return new IfNode(compile(list.get(1), scope), compile(list.get(2), scope), compile(list.get(3), scope));
+        if (form == DEFINE && size == 3 && list.get(1) instanceof Symbol)
+            return new DefineNode((Symbol) list.get(1), compile(list.get(2), scope));
+        if (isLambda(list))
+            return new LambdaNode(lambda((SList) list.get(1), list.get(2), scope));
+        if (form == CONS && size == 3)
+            return new ConsNode(compile(list.get(1), scope), compile(list.get(2), scope));
+        if (form == HEAD && size == 2)
+            return new HeadNode(compile(list.get(1), scope));
+        if (form == TAIL && size == 2)
+            return new TailNode(compile(list.get(1), scope));
+        if (form == EMPTY && size == 2)
+            return new EmptyNode(compile(list.get(1), scope));
+        if (form == COND && size == 2 && isPairList(list.get(1)))
+            return cond((SList) list.get(1), scope);
+        if (form == LET && size == 3 && isBindingList(list.get(1)) && !defines(list))
+            return let((SList) list.get(1), list.get(2), scope);
+        if (form == DEFN && size == 4 && list.get(1) instanceof Symbol && isParameterList(list.get(2)))
+            return new DefineNode((Symbol) list.get(1),
+                    new LambdaNode(lambda((SList) list.get(2), list.get(3), scope)));
+        if ((form == LAZY_RANGE || form == LAZY_MAP || form == LAZY_FILTER) && size == 3)
+            return new LazyNode(form, compile(list.get(1), scope), compile(list.get(2), scope));
+        if (form == SPAWN && size == 2)
+            return new SpawnNode(compile(list.get(1), scope));
+        if (form == DEFN_MEMO && size == 4 && list.get(1) instanceof Symbol && isParameterList(list.get(2)))
+            return new DefineNode((Symbol) list.get(1),
+                    new MemoizeNode(new LambdaNode(lambda((SList) list.get(2), list.get(3), scope))));
+
+        return interpreted(list, scope);
+    }
+
+    /**
+     * Leaves `list` to the evaluator, which looks variables up by name: the
+     * closures around it have to keep the frames they are made in.
+     */
+    private static Node interpreted(SList list, Scope scope) {
+        Scope.keepFrames(scope);
+        return new InterpretedNode(list);
+    }
+
+    private static Node cond(SList clauses, Scope scope) {
+        Node[] tests = new Node[clauses.size()];
+        Node[] bodies = new Node[clauses.size()];
+        int i = 0;
+        for (AbstractSyntaxTree clause : clauses) {
+            tests[i] = compile(((SList) clause).get(0), scope);
+            bodies[i++] = compile(((SList) clause).get(1), scope);
+        }
+        return new CondNode(tests, bodies);
+    }
+
+    private static Node let(SList bindings, AbstractSyntaxTree body, Scope scope) {
+        Symbol[] names = new Symbol[bindings.size()];
+        int i = 0;
+        for (AbstractSyntaxTree binding : bindings)
+            names[i++] = (Symbol) ((SList) binding).get(0);
+
+        Scope inner = new Scope(names, scope);
+        Node[] values = new Node[names.length];
+        for (i = 0; i < names.length; i++) {
+            inner.bound = i;
+            AbstractSyntaxTree value = ((SList) bindings.get(i)).get(1);
+            values[i] = isLambda(value)
+                    ? new LambdaNode(lambda((SList) ((SList) value).get(1), ((SList) value).get(2), inner, i))
+                    : compile(value, inner);
+        }
+
+        inner.bound = names.length;
+        return new LetNode(names, values, compile(body, inner));
+    }
+
+    private static Node[] compileAll(List<AbstractSyntaxTree> exps, Scope scope) {
+        Node[] nodes = new Node[exps.size()];
+        int i = 0;
+        for (AbstractSyntaxTree exp : exps)
+            nodes[i++] = compile(exp, scope);
+        return nodes;
+    }
+
+    /**
+     * Whether `ast` may `define` a variable in the frame it is evaluated in.
+     * This errs on the side of caution, and also counts definitions nested in
+     * inner functions.
+     */
+    private static boolean defines(AbstractSyntaxTree ast) {
+        if (ast == DEFINE || ast == DEFN || ast == DEFN_MEMO)
+            return true;
+        if (ast instanceof SList)
+            for (AbstractSyntaxTree exp : (SList) ast)
+                if (defines(exp))
+                    return true;
+        return false;
+    }
+
+    private static boolean isLambda(AbstractSyntaxTree ast) {
+        if (!(ast instanceof SList))
+            return false;
+        SList list = (SList) ast;
+        return list.size() == 3 && list.get(0) == LAMBDA && isParameterList(list.get(1));
+    }
+
+    private static boolean isParameterList(AbstractSyntaxTree ast) {
+        if (!(ast instanceof SList))
+            return false;
+        for (AbstractSyntaxTree param : (SList) ast)
+            if (!(param instanceof Symbol))
+                return false;
+        return true;
+    }
+
+    private static boolean isPairList(AbstractSyntaxTree ast) {
+        if (!(ast instanceof SList))
+            return false;
+        for (AbstractSyntaxTree pair : (SList) ast)
+            if (!(pair instanceof SList) || ((SList) pair).size() != 2)
+                return false;
+        return true;
+    }
+
+    private static boolean isBindingList(AbstractSyntaxTree ast) {
+        if (!isPairList(ast))
+            return false;
+        for (AbstractSyntaxTree binding : (SList) ast)
+            if (!(((SList) binding).get(0) instanceof Symbol))
+                return false;
+        return true;
+    }
+
+    private static Symbol[] symbols(SList params) {
+        Symbol[] names = new Symbol[params.size()];
+        int i = 0;
+        for (AbstractSyntaxTree param : params)
+            names[i++] = (Symbol) param;
+        return names;
+    }
+}
@@ -0,0 +1,34 @@
+package com.diy.lisp.model;
+
+/**
+ * The ways function bodies can be run. Top-level forms are evaluated by
+ * walking their syntax tree either way, as they only run once.
+ *
+ * The engine can be chosen with the system property `diy.lisp.engine`, or
+ * changed at run time with `Interpreter.setEngine`. Functions that already
+ * exist switch over on their next call.
+ */
+public enum Engine {
+
+    /**
+     * Function bodies run as self-specializing node trees, and are compiled
+     * to JVM classes once they are hot. See `Compiler` and `Jit`.
+     */
+    TREE,
+
+    /**
+     * Function bodies are compiled to instructions for a stack machine. See
+     * `Bytecode`.
+     */
+    BYTECODE;
+
+    private static volatile Engine current = valueOf(System.getProperty("diy.lisp.engine", "TREE").toUpperCase());
+
+    public static Engine current() {
+        return current;
+    }
+
+    public static void use(Engine engine) {
+        current = engine;
+    }
+}
@@ -1,24 +1,119 @@
 package com.diy.lisp.model;
 
-import com.diy.lisp.exception.NotImplementedException;
+import com.diy.lisp.exception.LispException;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A chain of frames holding variable bindings.
+ *
+ * The global frame, and any frame made through `extend`, is a map which can
+ * be added to with `set`. The frames made for function calls and `let` are
+ * fixed-size arrays instead: code inside a function has been resolved ahead
+ * of time (see `Compiler` and `Scope`), and reads its variables straight from
+ * a slot in one of these frames without any hashing.
+ *
+ * Names bound nowhere in the chain are looked up among the builtins last,
+ * as if every global frame had a parent holding them; see `Builtins`.
+ *
+ * Map frames start out as plain hash maps, for one thread. `makeConcurrent`,
+ * which `spawn` and the parallel functions call before other threads share
+ * an environment, switches the map frames of a chain to concurrent maps,
+ * which tasks can read while others define variables in them. Definitions
+ * and the switch are made holding the lock of the frame, so none is lost
+ * to a switch made by another thread. Array frames are never changed once
+ * filled, so they need no such mode.
+ */
 public class Environment {
 
-    private final Map<Symbol, AbstractSyntaxTree> variables;
+    private volatile Map<Symbol, AbstractSyntaxTree> variables;
+    private final Symbol[] names;
+    final AbstractSyntaxTree[] slots;
+    final Environment parent;
+
+    /**
+     * Counts the definitions in this frame of names that are also builtins,
+     * which hide the builtin from then on. Compiled code that has bound a
+     * builtin checks this, which other definitions leave alone. Volatile,
+     * so code running on other threads sees the builtin hidden as soon as
+     * the definition is made.
+     */
+    volatile int hidden;
 
     public AbstractSyntaxTree lookup(Symbol key) {
-        throw new NotImplementedException("Not implemented yet. You'll do this part on your own");
+        for (Environment env = this; env != null; env = env.parent) {
+            AbstractSyntaxTree value = env.get(key);
+            if (value != null)
+                return value;
+        }
+
+        AbstractSyntaxTree builtin = Builtins.get(key);
+        if (builtin != null)
+            return builtin;
+        throw new LispException(String.format("Variable %s is not defined", key));
     }
 
     public Environment extend(HashMap<Symbol, AbstractSyntaxTree> variables) {
-        throw new NotImplementedException("Not implemented yet. You'll do this part on your own");
+        return new Environment(variables, this);
     }
 
     public void set(Symbol key, AbstractSyntaxTree value) {
-        throw new NotImplementedException("Not implemented yet. You'll do this part on your own");
+        if (variables == null)
+            throw new LispException(String.format("Cannot define %s in a local scope", key));
+
+        synchronized (this) {
+            define(key, value);
+        }
+    }
+
+    /**
+     * Binds `key` in this map frame, replacing any binding it has. This is
+     * for filling a frame just made by `extend`, as `let` does; the binding
+     * goes to the frame's map as it is now, which `makeConcurrent` may have
+     * replaced since.
+     */
+    synchronized void bind(Symbol key, AbstractSyntaxTree value) {
+        variables.put(key, value);
+    }
+
+    private void define(Symbol key, AbstractSyntaxTree value) {
+        if (variables.containsKey(key))
+            throw new LispException(String.format("Variable %s is already defined", key));
+
+        variables.put(key, value);
+        if (Builtins.get(key) != null)
+            hidden++;
+    }
+
+    /**
+     * Switches the map frames of this chain to their concurrency-safe mode,
+     * for the chain to be shared with other threads. Frames that are already
+     * shared may be switched too: definitions made by other threads meanwhile
+     * wait for the switch, and then go to the new map. The maps are copied, so a
+     * map given to the constructor or `extend` no longer sees definitions
+     * made through the environment, and must not be changed directly any
+     * more: variables are added with `set` or `bind` from then on.
+     */
+    public void makeConcurrent() {
+        for (Environment env = this; env != null; env = env.parent) {
+            if (env.variables != null && !(env.variables instanceof ConcurrentHashMap)) {
+                synchronized (env) {
+                    if (!(env.variables instanceof ConcurrentHashMap))
+                        env.variables = new ConcurrentHashMap<>(env.variables);
+                }
+            }
+        }
+    }
+
+    public boolean isConcurrent() {
+        for (Environment env = this; env != null; env = env.parent) {
+            if (env.variables != null && !(env.variables instanceof ConcurrentHashMap))
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -27,11 +122,28 @@ public class Environment {
      */
 
     public Environment() {
-        variables = new HashMap<>();
+        this(new HashMap<>());
     }
 
     public Environment(HashMap<Symbol, AbstractSyntaxTree> variables) {
+        this(variables, null);
+    }
+
+    private Environment(HashMap<Symbol, AbstractSyntaxTree> variables, Environment parent) {
         this.variables = variables;
+        this.names = null;
+        this.slots = null;
+        this.parent = parent;
+    }
+
+    /**
+     * An array frame binding `names` to the values in `slots`, by position.
+     * Slots of a `let` frame are null until their binding has been evaluated.
+     */
+    Environment(Environment parent, Symbol[] names, AbstractSyntaxTree[] slots) {
+        this.names = names;
+        this.slots = slots;
+        this.parent = parent;
     }
 
     public static Environment env(HashMap<Symbol, AbstractSyntaxTree> variables) {
@@ -42,6 +154,37 @@ public class Environment {
         return env(new HashMap<>());
     }
 
+    /**
+     * The first map frame from this one, where lookups of names not bound in
+     * any function or `let` around the code end up.
+     */
+    Environment barrier() {
+        Environment env = this;
+        while (env.names != null)
+            env = env.parent;
+        return env;
+    }
+
+    /**
+     * Names bound by this frame, or null if it is a map frame.
+     */
+    Symbol[] names() {
+        return names;
+    }
+
+    /**
+     * The value bound to `key` in this frame alone, or null.
+     */
+    AbstractSyntaxTree get(Symbol key) {
+        if (names == null)
+            return variables.get(key);
+
+        for (int i = names.length - 1; i >= 0; i--)
+            if (names[i] == key && slots[i] != null)
+                return slots[i];
+        return null;
+    }
+
     @Override
     public String toString() {
         return "[Environment]";
@@ -54,12 +197,14 @@ public class Environment {
 
         Environment that = (Environment) o;
 
-        return variables.equals(that.variables);
-
+        if (variables != null ? !variables.equals(that.variables) : that.variables != null) return false;
+        if (!Arrays.equals(names, that.names)) return false;
+        if (!Arrays.equals(slots, that.slots)) return false;
+        return parent != null ? parent.equals(that.parent) : that.parent == null;
     }
 
     @Override
     public int hashCode() {
-        return variables.hashCode();
+        return variables != null ? variables.hashCode() : Arrays.hashCode(names);
     }
 }
@@ -1,14 +1,24 @@
 package com.diy.lisp.model;
 
-import com.diy.lisp.exception.NotImplementedException;
+import com.diy.lisp.exception.LispException;
 
-public class Int extends Atom {
+import java.math.BigInteger;
 
-    private int value;
+/**
+ * An integer of any size. Values that fit in a `long` are kept in one, and
+ * only larger ones in a `BigInteger`. Arithmetic checks for overflow, moving
+ * results that do not fit to a `BigInteger`, and back when they fit again.
+ */
+public final class Int extends Atom {
+
+    private final long value;
+
+    /** The value, if it does not fit in a `long`; null otherwise. */
+    private final BigInteger big;
 
     @Override
     public AbstractSyntaxTree evaluate(Environment env) {
-        throw new NotImplementedException("Not implemented yet. You'll do this part on your own");
+        return this;
     }
 
     /**
@@ -16,24 +26,155 @@ public class Int extends Atom {
      * to be changed by you. Feel free to use it as you wish, though!
      */
 
-    public Int(int value) {
+    private Int(long value, BigInteger big) {
         this.value = value;
+        this.big = big;
     }
 
-    public Int(String value) {
-        this.value = Integer.parseInt(value);
+    /**
+     * Returns the Int for `value`. Small values are served from a cache, much like
+     * `Integer.valueOf`. The upper bound of the cache is read from the system property
+     * `diy.lisp.int.cache.high` (default 1023), the lower bound is always -128.
+     */
+    public static Int number(long value) {
+        if (value >= Cache.LOW && value <= Cache.HIGH)
+            return Cache.VALUES[(int) value - Cache.LOW];
+        return new Int(value, null);
     }
 
-    public static Int number(int value) {
-        return new Int(value);
+    public static Int number(BigInteger value) {
+        if (value.bitLength() < Long.SIZE)
+            return number(value.longValue());
+        return new Int(0, value);
     }
 
     public static Int number(String value) {
-        return new Int(value);
+        // Up to 18 digits always fit in a long
+        if (value.length() <= (value.startsWith("-") ? 19 : 18))
+            return number(Long.parseLong(value));
+        return number(new BigInteger(value));
+    }
+
+    public Int add(Int other) {
+        if (big == null && other.big == null) {
+            long sum = value + other.value;
+            if (!addOverflows(value, other.value, sum))
+                return number(sum);
+        }
+        return number(bigValue().add(other.bigValue()));
+    }
+
+    public Int subtract(Int other) {
+        if (big == null && other.big == null) {
+            long difference = value - other.value;
+            if (!subtractOverflows(value, other.value, difference))
+                return number(difference);
+        }
+        return number(bigValue().subtract(other.bigValue()));
+    }
+
+    public Int multiply(Int other) {
+        if (big == null && other.big == null && !multiplyOverflows(value, other.value))
+            return number(value * other.value);
+        return number(bigValue().multiply(other.bigValue()));
+    }
+
+    public Int divide(Int other) {
+        if (big == null && other.big == null && !divideOverflows(value, other.value))
+            return number(quotient(value, other.value));
+        if (other.signum() == 0)
+            throw new LispException("Division by zero");
+        return number(bigValue().divide(other.bigValue()));
+    }
+
+    public Int mod(Int other) {
+        if (big == null && other.big == null)
+            return number(remainder(value, other.value));
+        if (other.signum() == 0)
+            throw new LispException("Division by zero");
+        return number(bigValue().remainder(other.bigValue()));
+    }
+
+    public boolean greaterThan(Int other) {
+        if (big == null && other.big == null)
+            return value > other.value;
+        return bigValue().compareTo(other.bigValue()) > 0;
+    }
+
+    public BigInteger bigValue() {
+        return big != null ? big : BigInteger.valueOf(value);
+    }
+
+    private int signum() {
+        return big != null ? big.signum() : Long.signum(value);
     }
 
+    /**
+     * The value, for Ints held in a `long`.
+     */
+    long value() {
+        return value;
+    }
+
+    /**
+     * Whether `value` is an Int held in a `long`, for the code that keeps
+     * intermediate results unboxed.
+     */
+    static boolean isFixnum(AbstractSyntaxTree value) {
+        return value instanceof Int && ((Int) value).big == null;
+    }
+
+    /**
+     * Checks for `long` arithmetic that overflows. The operations themselves
+     * are left to the caller, so they can be done without boxing.
+     */
+    static boolean addOverflows(long a, long b, long sum) {
+        return ((a ^ sum) & (b ^ sum)) < 0;
+    }
+
+    static boolean subtractOverflows(long a, long b, long difference) {
+        return ((a ^ b) & (a ^ difference)) < 0;
+    }
+
+    static boolean multiplyOverflows(long a, long b) {
+        if ((Math.abs(a) | Math.abs(b)) >>> 31 == 0)
+            return false;
+        return b != 0 && (a * b) / b != a || a == Long.MIN_VALUE && b == -1;
+    }
+
+    static boolean divideOverflows(long a, long b) {
+        return a == Long.MIN_VALUE && b == -1;
+    }
+
+    /**
+     * Division and remainder of unboxed values, for the code that keeps
+     * intermediate results out of `Int`s.
+     */
+    static long quotient(long a, long b) {
+        if (b == 0)
+            throw new LispException("Division by zero");
+        return a / b;
+    }
+
+    static long remainder(long a, long b) {
+        if (b == 0)
+            throw new LispException("Division by zero");
+        return a % b;
+    }
+
+    /**
+     * Whether `value` reads as an integer: digits, after an optional minus.
+     */
     public static boolean isNumber(String value) {
-        return value.matches("-?\\d+$");
+        int start = value.startsWith("-") ? 1 : 0;
+        if (value.length() == start)
+            return false;
+        for (int i = start; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return true;
     }
 
     @Override
@@ -44,22 +185,29 @@ public class Int extends Atom {
         Int number = (Int) o;
 
         if (value != number.value) return false;
+        if (big != null ? !big.equals(number.big) : number.big != null) return false;
 
         return true;
     }
 
     @Override
     public int hashCode() {
-        return value;
+        return big != null ? big.hashCode() : Long.hashCode(value);
     }
 
     @Override
     public String toString() {
-        return Integer.toString(value);
+        return big != null ? big.toString() : Long.toString(value);
     }
 
-    @Override
-    public AbstractSyntaxTree copy() {
-        return number(value);
+    private static class Cache {
+        static final int LOW = -128;
+        static final int HIGH = Math.max(LOW - 1, Integer.getInteger("diy.lisp.int.cache.high", 1023));
+        static final Int[] VALUES = new Int[HIGH - LOW + 1];
+
+        static {
+            for (int i = 0; i < VALUES.length; i++)
+                VALUES[i] = new Int(LOW + i, null);
+        }
     }
 }
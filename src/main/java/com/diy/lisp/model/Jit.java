@@ -0,0 +1,548 @@
+package com.diy.lisp.model;
+
+import com.diy.lisp.model.ClassFile.Code;
+import com.diy.lisp.model.ClassFile.Label;
+import com.diy.lisp.model.Nodes.*;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The second execution tier: translates the node tree of a function that is
+ * called often into a JVM class, so the JVM can compile and inline the body
+ * as a whole, like any Java method.
+ *
+ * The generated code follows the specializations the nodes have made so far,
+ * with the same fallbacks. Functions defined at the top level also have their
+ * references to global variables bound to the values they have when compiled.
+ * Variables of the global environment cannot be redefined, so those hold for
+ * good. A builtin holds until the global environment gets a definition hiding
+ * a builtin; if it does, the code checks, carries on without the assumption,
+ * and hands the function back to the node tree. See `CompiledCode.deoptimize`.
+ *
+ * Classes are defined as hidden classes where the JVM has them (Java 15 and
+ * up), and in the ordinary way through `MethodHandles.Lookup` otherwise. On
+ * Java 8, functions stay on the node tree.
+ *
+ * A function is compiled after `threshold` calls, set with the system
+ * property `diy.lisp.jit.threshold`. A threshold of 0 turns compilation off.
+ */
+public final class Jit {
+
+    private static final String PACKAGE = "com/diy/lisp/model/";
+    private static final String AST = PACKAGE + "AbstractSyntaxTree";
+    private static final String ENV = PACKAGE + "Environment";
+    private static final String SYMBOL = PACKAGE + "Symbol";
+    private static final String INT = PACKAGE + "Int";
+    private static final String BOOL = PACKAGE + "Bool";
+    private static final String CLOSURE = PACKAGE + "Closure";
+    private static final String PROCEDURE = PACKAGE + "Procedure";
+    private static final String LAMBDA = PACKAGE + "Lambda";
+    private static final String NODE = PACKAGE + "Node";
+    private static final String FORMS = PACKAGE + "SpecialForms";
+    private static final String COMPILED = PACKAGE + "CompiledCode";
+
+    private static final String EXECUTE = "(L" + ENV + ";)L" + AST + ";";
+    private static final String UNARY = "(L" + AST + ";)L" + AST + ";";
+    private static final String BINARY = "(L" + AST + ";L" + AST + ";)L" + AST + ";";
+    private static final String CONSTRUCTOR = "(L" + LAMBDA + ";[Ljava/lang/Object;)V";
+
+    /**
+     * How deep nested arithmetic is computed without boxing. The code for
+     * the generic fallbacks grows with the square of it.
+     */
+    private static final int NESTING = 4;
+
+    private static final Definer DEFINER = definer();
+    private static final AtomicInteger classes = new AtomicInteger();
+    private static final AtomicInteger compilations = new AtomicInteger();
+    private static final AtomicInteger deoptimizations = new AtomicInteger();
+    private static final AtomicInteger failures = new AtomicInteger();
+
+    private static int threshold = Integer.getInteger("diy.lisp.jit.threshold", 1000);
+
+    private Jit() {
+    }
+
+    public static int threshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets the number of calls after which functions are compiled. Only
+     * affects functions that have not reached the old threshold yet.
+     */
+    public static void setThreshold(int calls) {
+        threshold = calls;
+    }
+
+    public static boolean isAvailable() {
+        return DEFINER != null;
+    }
+
+    public static int compilations() {
+        return compilations.get();
+    }
+
+    public static int deoptimizations() {
+        return deoptimizations.get();
+    }
+
+    /**
+     * Number of functions that could not be compiled, and stay on the node
+     * tree.
+     */
+    public static int failures() {
+        return failures.get();
+    }
+
+    static void deoptimized() {
+        deoptimizations.incrementAndGet();
+    }
+
+    /**
+     * Compiles `lambda`, called with a closure over `env`, returning the
+     * node tree instead if it cannot be compiled.
+     */
+    static Node compile(Lambda lambda, Environment env) {
+        if (DEFINER == null)
+            return lambda.tree;
+
+        Environment barrier = lambda.dynamic ? null : env.barrier();
+        Generator generator = new Generator(lambda, barrier != null && barrier.parent == null ? barrier : null);
+        try {
+            Class<?> type = DEFINER.define(generator.generate());
+            Node code = (Node) type.getConstructor(Lambda.class, Object[].class)
+                    .newInstance(lambda, generator.constants.toArray());
+            compilations.incrementAndGet();
+            return code;
+        } catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+            failures.incrementAndGet();
+            return lambda.tree;
+        }
+    }
+
+    /**
+     * Writes the class for one function body.
+     */
+    private static final class Generator {
+        private final Lambda lambda;
+        private final Environment globals;
+        private final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> indexes = new IdentityHashMap<>();
+        private Code code;
+
+        Generator(Lambda lambda, Environment globals) {
+            this.lambda = lambda;
+            this.globals = globals;
+        }
+
+        byte[] generate() {
+            ClassFile file = new ClassFile(ClassFile.ACC_FINAL | ClassFile.ACC_SUPER,
+                    PACKAGE + "CompiledLambda$" + classes.incrementAndGet(), COMPILED);
+
+            code = file.method(ClassFile.ACC_PUBLIC, "<init>", CONSTRUCTOR, 3);
+            code.aload(0).aload(1).aload(2).invokespecial(COMPILED, "<init>", CONSTRUCTOR).vreturn();
+
+            code = file.method(0, "execute", EXECUTE, 2);
+            emit(lambda.tree, false, 1);
+            code.areturn();
+
+            code = file.method(0, "executeTail", EXECUTE, 2);
+            emit(lambda.tree, true, 1);
+            code.areturn();
+
+            return file.toByteArray();
+        }
+
+        /**
+         * Emits code leaving the value of `node` on the stack, with the frame
+         * in local variable `frame`.
+         */
+        private void emit(Node node, boolean tail, int frame) {
+            if (node instanceof Body)
+                emit(((Body) node).body, tail, frame);
+            else if (node instanceof ConstNode)
+                constant(((ConstNode) node).value, AST);
+            else if (node instanceof LocalReadNode)
+                localRead((LocalReadNode) node, frame);
+            else if (node instanceof GlobalReadNode)
+                globalRead(((GlobalReadNode) node).symbol, frame);
+            else if (node instanceof IfNode)
+                ifNode((IfNode) node, tail, frame);
+            else if (node instanceof CondNode)
+                condNode((CondNode) node, tail, frame);
+            else if (node instanceof LetNode)
+                letNode((LetNode) node, tail, frame);
+            else if (node instanceof LambdaNode)
+                lambdaNode((LambdaNode) node, frame);
+            else if (node instanceof UnaryNode)
+                unaryNode((UnaryNode) node, frame);
+            else if (node instanceof EqNode || node instanceof ConsNode)
+                binaryNode((BinaryNode) node, node instanceof EqNode ? "eq" : "cons", frame);
+            else if (node instanceof IntArithmeticNode)
+                intArithmetic((IntArithmeticNode) node, frame);
+            else if (node instanceof ArithmeticNode)
+                arithmetic(((ArithmeticNode) node).operator, (BinaryNode) node, frame);
+            else if (node instanceof GenericArithmeticNode)
+                arithmetic(((GenericArithmeticNode) node).operator, (BinaryNode) node, frame);
+            else if (node instanceof AbstractCallNode)
+                call((AbstractCallNode) node, tail, frame);
+            else
+                delegate(node, tail, frame);
+        }
+
+        /**
+         * Leaves it to `node` itself, for the nodes there is nothing to gain
+         * from compiling.
+         */
+        private void delegate(Node node, boolean tail, int frame) {
+            constant(node, NODE);
+            code.aload(frame).invokevirtual(NODE, tail ? "executeTail" : "execute", EXECUTE);
+        }
+
+        private void localRead(LocalReadNode node, int frame) {
+            Label done = new Label();
+            code.aload(frame);
+            for (int i = 0; i < node.depth; i++)
+                code.getfield(ENV, "parent", "L" + ENV + ";");
+            code.getfield(ENV, "slots", "[L" + AST + ";").push(node.slot).aaload()
+                    .dup().ifnonnull(done)
+                    .pop();
+            lookup(node.symbol, frame);
+            code.mark(done);
+        }
+
+        private void globalRead(Symbol symbol, int frame) {
+            AbstractSyntaxTree value = globals != null ? globals.get(symbol) : null;
+            if (value != null) {
+                constant(value, AST);
+                return;
+            }
+            Builtin builtin = globals != null ? Builtins.get(symbol) : null;
+            if (builtin == null) {
+                // Not defined yet, so nothing to assume
+                lookup(symbol, frame);
+                return;
+            }
+
+            Label changed = new Label();
+            Label done = new Label();
+            constant(globals, ENV);
+            code.getfield(ENV, "hidden", "I").push(globals.hidden).ifIcmpne(changed);
+            constant(builtin, AST);
+            code.goTo(done).mark(changed)
+                    .aload(0).invokevirtual(COMPILED, "deoptimize", "()V");
+            lookup(symbol, frame);
+            code.mark(done);
+        }
+
+        private void lookup(Symbol symbol, int frame) {
+            code.aload(frame);
+            constant(symbol, SYMBOL);
+            code.invokevirtual(ENV, "lookup", "(L" + SYMBOL + ";)L" + AST + ";");
+        }
+
+        private void ifNode(IfNode node, boolean tail, int frame) {
+            Label otherwise = new Label();
+            Label done = new Label();
+            emit(node.test, false, frame);
+            code.getstatic(BOOL, "FALSE", "L" + BOOL + ";").ifAcmpeq(otherwise);
+            emit(node.then, tail, frame);
+            code.goTo(done).mark(otherwise);
+            emit(node.otherwise, tail, frame);
+            code.mark(done);
+        }
+
+        private void condNode(CondNode node, boolean tail, int frame) {
+            Label done = new Label();
+            for (int i = 0; i < node.tests.length; i++) {
+                Label next = new Label();
+                emit(node.tests[i], false, frame);
+                code.getstatic(BOOL, "FALSE", "L" + BOOL + ";").ifAcmpeq(next);
+                emit(node.bodies[i], tail, frame);
+                code.goTo(done).mark(next);
+            }
+            code.getstatic(BOOL, "FALSE", "L" + BOOL + ";").mark(done);
+        }
+
+        private void letNode(LetNode node, boolean tail, int frame) {
+            int slots = code.allocate();
+            int inner = code.allocate();
+            code.push(node.names.length).anewarray(AST).astore(slots)
+                    .newObject(ENV).dup().aload(frame);
+            constant(node.names, "[L" + SYMBOL + ";");
+            code.aload(slots).invokespecial(ENV, "<init>", "(L" + ENV + ";[L" + SYMBOL + ";[L" + AST + ";)V")
+                    .astore(inner);
+            for (int i = 0; i < node.values.length; i++) {
+                code.aload(slots).push(i);
+                emit(node.values[i], false, inner);
+                code.aastore();
+            }
+            emit(node.body, tail, inner);
+            code.free(inner);
+            code.free(slots);
+        }
+
+        private void lambdaNode(LambdaNode node, int frame) {
+            code.newObject(CLOSURE).dup().aload(frame);
+            constant(node.lambda, LAMBDA);
+            code.invokespecial(CLOSURE, "<init>", "(L" + ENV + ";L" + LAMBDA + ";)V");
+        }
+
+        private void unaryNode(UnaryNode node, int frame) {
+            String name = node instanceof AtomNode ? "atom"
+                    : node instanceof HeadNode ? "head"
+                    : node instanceof TailNode ? "tail"
+                    : "empty";
+            emit(node.argument, false, frame);
+            code.invokestatic(FORMS, name, UNARY);
+        }
+
+        private void binaryNode(BinaryNode node, String name, int frame) {
+            emit(node.left, false, frame);
+            emit(node.right, false, frame);
+            code.invokestatic(FORMS, name, BINARY);
+        }
+
+        private void arithmetic(Symbol operator, BinaryNode node, int frame) {
+            constant(operator, SYMBOL);
+            emit(node.left, false, frame);
+            emit(node.right, false, frame);
+            code.invokestatic(FORMS, "arithmetic", "(L" + SYMBOL + ";L" + AST + ";L" + AST + ";)L" + AST + ";");
+        }
+
+        /**
+         * Arithmetic on numbers, with the generic version for other operands.
+         * Operands that are arithmetic themselves are computed as unboxed
+         * `long`s, up to `NESTING` levels deep, so only the result is made
+         * into an `Int`.
+         */
+        private void intArithmetic(IntArithmeticNode node, int frame) {
+            Label done = new Label();
+            int value = code.allocate();
+            int other = code.allocate();
+            List<Node> path = new ArrayList<>();
+            path.add(node);
+            longOperand(node.left, path, value, other, done, frame);
+            longOperand(node.right, path, value, other, done, frame);
+            if (node instanceof GreaterNode) {
+                Label greater = new Label();
+                code.lcmp().ifgt(greater)
+                        .getstatic(BOOL, "FALSE", "L" + BOOL + ";").goTo(done)
+                        .mark(greater).getstatic(BOOL, "TRUE", "L" + BOOL + ";");
+            } else {
+                operate(path, value, other, done, frame);
+                code.invokestatic(INT, "number", "(J)L" + INT + ";");
+            }
+            code.mark(done);
+            code.free(other);
+            code.free(value);
+        }
+
+        /**
+         * Emits code leaving the value of `node`, an operand of the last
+         * node on `path`, unboxed on the stack. The path holds the arithmetic
+         * nodes being computed unboxed, from the outermost in.
+         */
+        private void longOperand(Node node, List<Node> path, int value, int other, Label done, int frame) {
+            path.add(node);
+            if (node instanceof IntOperationNode && path.size() <= NESTING) {
+                IntOperationNode operation = (IntOperationNode) node;
+                longOperand(operation.left, path, value, other, done, frame);
+                longOperand(operation.right, path, value, other, done, frame);
+                operate(path, value, other, done, frame);
+            } else if (node instanceof ConstNode && isSmall(((ConstNode) node).value)) {
+                code.push((int) ((Int) ((ConstNode) node).value).value()).i2l();
+            } else {
+                Label number = new Label();
+                emit(node, false, frame);
+                code.dup().invokestatic(INT, "isFixnum", "(L" + AST + ";)Z").ifne(number)
+                        .astore(value);
+                generic(path, value, other, frame);
+                code.aload(value).goTo(done)
+                        .mark(number).checkcast(INT).invokevirtual(INT, "value", "()J");
+            }
+            path.remove(path.size() - 1);
+        }
+
+        private static boolean isSmall(AbstractSyntaxTree value) {
+            return Int.isFixnum(value)
+                    && ((Int) value).value() >= Integer.MIN_VALUE && ((Int) value).value() <= Integer.MAX_VALUE;
+        }
+
+        /**
+         * Emits the operation at the end of `path` on the two `long`s on
+         * the stack. Should the result overflow, the computation is finished
+         * with the generic arithmetic.
+         */
+        private void operate(List<Node> path, int value, int other, Label done, int frame) {
+            IntOperationNode node = (IntOperationNode) path.get(path.size() - 1);
+            Label fits = new Label();
+            int a = allocateLong();
+            int b = allocateLong();
+            int result = allocateLong();
+            code.lstore(b).lstore(a)
+                    .lload(a).lload(b);
+            if (node instanceof AddNode)
+                code.ladd();
+            else if (node instanceof SubtractNode)
+                code.lsub();
+            else if (node instanceof MultiplyNode)
+                code.lmul();
+            else
+                code.invokestatic(INT, node instanceof DivideNode ? "quotient" : "remainder", "(JJ)J");
+            code.lstore(result);
+
+            if (!(node instanceof ModNode)) {
+                if (node instanceof AddNode || node instanceof SubtractNode)
+                    code.lload(a).lload(b).lload(result)
+                            .invokestatic(INT, node instanceof AddNode ? "addOverflows" : "subtractOverflows", "(JJJ)Z");
+                else
+                    code.lload(a).lload(b)
+                            .invokestatic(INT, node instanceof MultiplyNode ? "multiplyOverflows" : "divideOverflows", "(JJ)Z");
+                code.ifeq(fits);
+                constant(node.operator, SYMBOL);
+                code.lload(a).invokestatic(INT, "number", "(J)L" + INT + ";")
+                        .lload(b).invokestatic(INT, "number", "(J)L" + INT + ";")
+                        .invokestatic(FORMS, "arithmetic", "(L" + SYMBOL + ";L" + AST + ";L" + AST + ";)L" + AST + ";")
+                        .astore(value);
+                generic(path, value, other, frame);
+                code.aload(value).goTo(done)
+                        .mark(fits);
+            }
+            code.lload(result);
+
+            freeLong(result);
+            freeLong(b);
+            freeLong(a);
+        }
+
+        /**
+         * Finishes the unboxed computation on `path` with the generic
+         * arithmetic, starting from the value at its end, held in local
+         * `value`, that turned out not to fit in a `long`. Operands already
+         * computed are on the stack, and the ones still to come are run as
+         * usual. Leaves the result in `value`.
+         */
+        private void generic(List<Node> path, int value, int other, int frame) {
+            for (int i = path.size() - 1; i > 0; i--) {
+                IntArithmeticNode node = (IntArithmeticNode) path.get(i - 1);
+                if (path.get(i) == node.left) {
+                    emit(node.right, false, frame);
+                    code.astore(other);
+                    constant(node.operator, SYMBOL);
+                    code.aload(value).aload(other);
+                } else {
+                    code.invokestatic(INT, "number", "(J)L" + INT + ";").astore(other);
+                    constant(node.operator, SYMBOL);
+                    code.aload(other).aload(value);
+                }
+                code.invokestatic(FORMS, "arithmetic", "(L" + SYMBOL + ";L" + AST + ";L" + AST + ";)L" + AST + ";")
+                        .astore(value);
+            }
+        }
+
+        private int allocateLong() {
+            int local = code.allocate();
+            code.allocate();
+            return local;
+        }
+
+        private void freeLong(int local) {
+            code.free(local + 1);
+            code.free(local);
+        }
+
+        /**
+         * A call: closures and builtins get the evaluated arguments, anything
+         * else the unevaluated ones, as in `GenericCallNode`.
+         */
+        private void call(AbstractCallNode node, boolean tail, int frame) {
+            Label generic = new Label();
+            Label done = new Label();
+            int callee = code.allocate();
+            int procedure = code.allocate();
+            int count = node.arguments.length;
+
+            emit(node.function, false, frame);
+            code.astore(callee)
+                    .aload(callee).instanceOf(PROCEDURE).ifeq(generic)
+                    .aload(callee).checkcast(PROCEDURE).astore(procedure)
+                    .aload(procedure).push(count).invokevirtual(PROCEDURE, "checkArguments", "(I)V");
+            if (!tail && count <= 4) {
+                code.aload(procedure);
+                StringBuilder descriptor = new StringBuilder("(");
+                for (Node argument : node.arguments) {
+                    emit(argument, false, frame);
+                    descriptor.append('L').append(AST).append(';');
+                }
+                code.invokevirtual(PROCEDURE, "call" + count, descriptor + ")L" + AST + ";");
+            } else {
+                int args = code.allocate();
+                code.push(count).anewarray(AST).astore(args);
+                for (int i = 0; i < count; i++) {
+                    code.aload(args).push(i);
+                    emit(node.arguments[i], false, frame);
+                    code.aastore();
+                }
+                code.aload(procedure).aload(args)
+                        .invokevirtual(PROCEDURE, tail ? "tailCall" : "call", "([L" + AST + ";)L" + AST + ";");
+                code.free(args);
+            }
+            code.goTo(done).mark(generic)
+                    .aload(callee);
+            constant(node.exps, "java/util/List");
+            code.aload(frame)
+                    .invokevirtual(AST, tail ? "evaluateTail" : "evaluate", "(Ljava/util/List;L" + ENV + ";)L" + AST + ";")
+                    .mark(done);
+
+            code.free(procedure);
+            code.free(callee);
+        }
+
+        private void constant(Object value, String type) {
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                indexes.put(value, index);
+            }
+            code.aload(0).getfield(COMPILED, "constants", "[Ljava/lang/Object;")
+                    .push(index).aaload().checkcast(type);
+        }
+    }
+
+    private interface Definer {
+        Class<?> define(byte[] bytes) throws ReflectiveOperationException;
+    }
+
+    /**
+     * Finds the best way this JVM has of defining classes in this package,
+     * going through reflection, as the methods are newer than Java 8.
+     */
+    private static Definer definer() {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            Object options = Array.newInstance(option, 0);
+            Method define = MethodHandles.Lookup.class
+                    .getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+            return bytes -> ((MethodHandles.Lookup) define.invoke(lookup, bytes, true, options)).lookupClass();
+        } catch (ReflectiveOperationException e) {
+            // Before Java 15
+        }
+        try {
+            Method define = MethodHandles.Lookup.class.getMethod("defineClass", byte[].class);
+            return bytes -> (Class<?>) define.invoke(lookup, bytes);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.diy.lisp.model;
+
+/**
+ * A compiled `lambda` form. Every closure made from the form shares it, so
+ * the body is compiled once however many closures the form creates.
+ *
+ * The body first runs as a tree of nodes. Once it has been called often
+ * enough, `Jit` translates it to JVM bytecode, which is used from then on
+ * unless it has to be deoptimized. With the bytecode engine, the body is
+ * instead compiled to `Bytecode` on its first call.
+ *
+ * Closures of one form can be called from several threads at once. The
+ * call count is a plain field, as a lost increment only delays compiling;
+ * the code itself is switched holding the lock of the form, and read
+ * through volatile fields so a thread sees the compiled class whole.
+ */
+final class Lambda {
+
+    final SList params;
+    final AbstractSyntaxTree body;
+    final Symbol[] names;
+    final Node tree;
+
+    /**
+     * Set when the body may `define` variables in the call frame, which must
+     * then be a map frame. The body is compiled as if nothing is known about
+     * the frames around it.
+     */
+    final boolean dynamic;
+
+    /**
+     * For a flat closure, the names of the variables it copies from around
+     * the form, and the nodes that read them there; a null node stands for
+     * the closure itself. Null if closures keep the frames around them.
+     */
+    final Symbol[] captured;
+    final Node[] captures;
+
+    private volatile Node code;
+    private int calls;
+    private volatile Bytecode bytecode;
+
+    Lambda(SList params, AbstractSyntaxTree body, Symbol[] names, Node tree, boolean dynamic, Scope captured) {
+        this.params = params;
+        this.body = body;
+        this.names = names;
+        this.tree = tree;
+        this.dynamic = dynamic;
+        this.code = tree;
+        this.captured = captured != null ? captured.names : null;
+        this.captures = captured != null ? captured.captures.reads.toArray(new Node[0]) : null;
+    }
+
+    /**
+     * The environment for `closure`, made from this form in `frame`: for a
+     * flat closure, a frame of the values it captures in front of the map
+     * frame holding the globals, or just that map frame if there are none.
+     */
+    Environment environment(Environment frame, Closure closure) {
+        if (captured == null)
+            return frame;
+        if (captured.length == 0)
+            return frame.barrier();
+
+        AbstractSyntaxTree[] values = new AbstractSyntaxTree[captured.length];
+        for (int i = 0; i < values.length; i++)
+            values[i] = captures[i] != null ? captures[i].execute(frame) : closure;
+        return new Environment(frame.barrier(), captured, values);
+    }
+
+    /**
+     * The code to run for a call of a closure over `env`.
+     */
+    Node code(Environment env) {
+        if (Engine.current() == Engine.BYTECODE) {
+            Bytecode bytecode = this.bytecode;
+            return bytecode != null ? bytecode : compileBytecode();
+        }
+        int threshold = Jit.threshold();
+        if (calls < threshold && ++calls == threshold)
+            compile(env);
+        return code;
+    }
+
+    private synchronized Bytecode compileBytecode() {
+        if (bytecode == null)
+            bytecode = BytecodeCompiler.compile(this);
+        return bytecode;
+    }
+
+    private synchronized void compile(Environment env) {
+        if (code == tree)
+            code = Jit.compile(this, env);
+    }
+
+    synchronized void deoptimize(CompiledCode compiled) {
+        if (code == compiled) {
+            code = tree;
+            calls = 0;
+            Jit.deoptimized();
+        }
+    }
+}
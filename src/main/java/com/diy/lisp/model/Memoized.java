@@ -0,0 +1,136 @@
+package com.diy.lisp.model;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A procedure that remembers its results: called again with arguments equal
+ * to those of an earlier call, it returns the earlier result instead of
+ * calling the procedure it wraps. This pays off for pure functions called
+ * with the same arguments over and over, like recursive ones whose
+ * subproblems overlap. Made by `memoize` and `defn-memo`.
+ *
+ * Arguments are compared with `equals`, so two lists with the same elements
+ * are the same argument. At most `capacity` results are kept; when another
+ * one is added, the one used least recently is dropped.
+ *
+ * The results can be shared between threads. The wrapped procedure is called
+ * outside the lock, so calls of it can run in parallel and recurse, and two
+ * threads missing the same arguments at once may both call it.
+ */
+public final class Memoized extends Procedure {
+
+    /**
+     * How many results are kept by default, set by the system property
+     * `diy.lisp.memoize.capacity`.
+     */
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("diy.lisp.memoize.capacity", 10000);
+
+    public final Procedure procedure;
+    public final int capacity;
+    private final Map<Object, AbstractSyntaxTree> results;
+    private long hits;
+    private long misses;
+
+    public Memoized(Procedure procedure) {
+        this(procedure, DEFAULT_CAPACITY);
+    }
+
+    public Memoized(Procedure procedure, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+
+        this.procedure = procedure;
+        this.capacity = capacity;
+        this.results = new LinkedHashMap<Object, AbstractSyntaxTree>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, AbstractSyntaxTree> eldest) {
+                return size() > Memoized.this.capacity;
+            }
+        };
+    }
+
+    @Override
+    AbstractSyntaxTree call(AbstractSyntaxTree[] args) {
+        Object key = args.length == 1 ? args[0] : new Arguments(args);
+        synchronized (this) {
+            AbstractSyntaxTree result = results.get(key);
+            if (result != null) {
+                hits++;
+                return result;
+            }
+            misses++;
+        }
+
+        AbstractSyntaxTree result = procedure.call(args);
+        synchronized (this) {
+            results.put(key, result);
+        }
+        return result;
+    }
+
+    @Override
+    void checkArguments(int count) {
+        procedure.checkArguments(count);
+    }
+
+    /**
+     * The number of calls answered from the results kept.
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * The number of calls that had to call the wrapped procedure.
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * The number of results kept.
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    /**
+     * Drops the results kept, and resets the counts.
+     */
+    public synchronized void clear() {
+        results.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "[Memoized " + procedure + "]";
+    }
+
+    /**
+     * The arguments of a call of more or less than one argument, as a key.
+     * A single argument is its own key.
+     */
+    private static final class Arguments {
+        private final AbstractSyntaxTree[] values;
+        private final int hash;
+
+        Arguments(AbstractSyntaxTree[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Arguments && Arrays.equals(values, ((Arguments) o).values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.diy.lisp.model;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * A node of a compiled function body; see `Compiler`.
+ *
+ * Each node knows how to run one kind of expression against a frame, the
+ * environment of the call. Some nodes start out general, and once they have
+ * seen what values they are given, replace themselves in their parent with a
+ * version specialized for those values. This keeps each `execute` small and
+ * seeing a single type, which is what the JVM optimizes best.
+ *
+ * A tree can run on several threads at once, from `pmap` or tasks. A rewrite
+ * holds the locks of the node replaced and of its parent, taken child first
+ * so they are always taken in the same order. Threads running the tree read
+ * it without locking: the fields holding children are volatile, and arrays
+ * of children are copied rather than changed, so a replacement is only seen
+ * once it is fully built. A thread may keep running a node for a while after
+ * it is replaced, which gives the same results.
+ */
+abstract class Node {
+
+    volatile Node parent;
+
+    /**
+     * Whether this node has been taken out of the tree. Guarded by the lock
+     * of this node.
+     */
+    private boolean replaced;
+
+    abstract AbstractSyntaxTree execute(Environment frame);
+
+    /**
+     * Runs this node in tail position, where a call to a closure may be
+     * returned as a `TailCall` instead of being made.
+     */
+    AbstractSyntaxTree executeTail(Environment frame) {
+        return execute(frame);
+    }
+
+    /**
+     * Runs this node for a value its parent expects to be a number that fits
+     * in a `long`, which is returned unboxed. Arithmetic nodes override this
+     * so nested arithmetic only makes an `Int` for the final result.
+     *
+     * @throws UnexpectedResult if the value is anything else
+     */
+    long executeLong(Environment frame) {
+        AbstractSyntaxTree value = execute(frame);
+        if (Int.isFixnum(value))
+            return ((Int) value).value();
+        throw new UnexpectedResult(value);
+    }
+
+    /**
+     * Puts the node `factory` makes in the place of this node in the tree,
+     * unless another thread has already replaced it. The factory runs with
+     * the tree locked around this node, so it sees the current children and
+     * none of them is rewritten while the replacement adopts them. The node
+     * that asked for the rewrite finishes the current run itself.
+     */
+    final void replace(Supplier<? extends Node> factory) {
+        synchronized (this) {
+            if (replaced)
+                return;
+            while (true) {
+                Node parent = this.parent;
+                synchronized (parent) {
+                    // The parent may have been replaced, and this node adopted
+                    // by the new one, while we waited for its lock.
+                    if (this.parent != parent)
+                        continue;
+                    Node replacement = factory.get();
+                    replacement.parent = parent;
+                    parent.replaceChild(this, replacement);
+                    replaced = true;
+                    return;
+                }
+            }
+        }
+    }
+
+    void replaceChild(Node child, Node replacement) {
+        throw new IllegalStateException(String.format("%s has no children", getClass().getSimpleName()));
+    }
+
+    final <T extends Node> T adopt(T child) {
+        child.parent = this;
+        return child;
+    }
+
+    final Node[] adopt(Node[] children) {
+        for (Node child : children)
+            child.parent = this;
+        return children;
+    }
+
+    static Node swap(Node field, Node child, Node replacement) {
+        return field == child ? replacement : field;
+    }
+
+    /**
+     * Returns `fields` with `child` replaced, in a copy if it is there.
+     */
+    static Node[] swap(Node[] fields, Node child, Node replacement) {
+        Node[] swapped = fields;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == child) {
+                if (swapped == fields)
+                    swapped = Arrays.copyOf(fields, fields.length);
+                swapped[i] = replacement;
+            }
+        }
+        return swapped;
+    }
+}
@@ -0,0 +1,844 @@
+package com.diy.lisp.model;
+
+import java.util.List;
+
+import static com.diy.lisp.model.SpecialForms.*;
+
+/**
+ * The nodes making up compiled function bodies, one for each kind of
+ * expression. See `Compiler` for how they are put together, and `Jit` for
+ * how they are translated to bytecode.
+ */
+final class Nodes {
+
+    private Nodes() {
+    }
+
+    /**
+     * The root of a function body, there so the top node has a parent to be
+     * replaced in.
+     */
+    static final class Body extends Node {
+        volatile Node body;
+
+        Body(Node body) {
+            this.body = adopt(body);
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            return body.execute(frame);
+        }
+
+        @Override
+        AbstractSyntaxTree executeTail(Environment frame) {
+            return body.executeTail(frame);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            body = swap(body, child, replacement);
+        }
+    }
+
+    /**
+     * A literal or quoted value.
+     */
+    static final class ConstNode extends Node {
+        final AbstractSyntaxTree value;
+
+        ConstNode(AbstractSyntaxTree value) {
+            this.value = value;
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            return value;
+        }
+    }
+
+    /**
+     * A variable in slot `slot` of the array frame `depth` frames up.
+     *
+     * A `let` binding may refer to a name of its own frame before that name
+     * has been bound. The slot is still empty then, and the name means
+     * whatever it means further out, just as it would when looked up by name.
+     */
+    static final class LocalReadNode extends Node {
+        final Symbol symbol;
+        final int depth;
+        final int slot;
+
+        LocalReadNode(Symbol symbol, int depth, int slot) {
+            this.symbol = symbol;
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            Environment env = frame;
+            for (int i = 0; i < depth; i++)
+                env = env.parent;
+
+            AbstractSyntaxTree value = env.slots[slot];
+            return value != null ? value : frame.lookup(symbol);
+        }
+    }
+
+    /**
+     * A variable that is not bound in any enclosing function, looked up by
+     * name.
+     *
+     * Values found from a global environment are cached for it; for a call,
+     * this is the environment of the function called. As variables cannot
+     * be redefined, a value found in that environment holds for good. A
+     * builtin holds until the environment gets a definition hiding one,
+     * which its `hidden` count tells. Up to `CACHE_SIZE` environments are
+     * cached, replacing the oldest when full.
+     *
+     * Lookups starting from other map frames, such as the frame of each call
+     * to a function that defines variables, are made by name: those frames
+     * come and go, and caching them would only keep them alive.
+     */
+    static final class GlobalReadNode extends Node {
+        private static final int CACHE_SIZE = 4;
+
+        final Symbol symbol;
+        private final CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
+        private int next;
+
+        GlobalReadNode(Symbol symbol) {
+            this.symbol = symbol;
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            Environment env = frame.barrier();
+            for (CacheEntry entry : cache)
+                if (entry != null && entry.env == env && (entry.hidden < 0 || entry.hidden == env.hidden))
+                    return entry.value;
+
+            AbstractSyntaxTree value = frame.lookup(symbol);
+            if (env.parent == null)
+                cache(env, value);
+            return value;
+        }
+
+        private void cache(Environment env, AbstractSyntaxTree value) {
+            CacheEntry entry = new CacheEntry(env, env.get(symbol) != null ? -1 : env.hidden, value);
+            for (int i = 0; i < cache.length; i++) {
+                if (cache[i] == null || cache[i].env == env) {
+                    cache[i] = entry;
+                    return;
+                }
+            }
+            cache[next] = entry;
+            next = (next + 1) % cache.length;
+        }
+    }
+
+    /**
+     * The value of a `GlobalReadNode` for lookups from the global environment
+     * `env`, while `hidden` is that of `env`, or for good if it is negative.
+     * Entries are never changed, so one thread can use an entry while another
+     * replaces it.
+     */
+    static final class CacheEntry {
+        final Environment env;
+        final int hidden;
+        final AbstractSyntaxTree value;
+
+        CacheEntry(Environment env, int hidden, AbstractSyntaxTree value) {
+            this.env = env;
+            this.hidden = hidden;
+            this.value = value;
+        }
+    }
+
+    /**
+     * An expression the compiler leaves to the tree-walking evaluator, like a
+     * malformed special form, which should only fail once it is evaluated.
+     */
+    static final class InterpretedNode extends Node {
+        final AbstractSyntaxTree ast;
+
+        InterpretedNode(AbstractSyntaxTree ast) {
+            this.ast = ast;
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            return ast.evaluate(frame);
+        }
+
+        @Override
+        AbstractSyntaxTree executeTail(Environment frame) {
+            return ast.evaluateTail(frame);
+        }
+    }
+
+    static final class IfNode extends Node {
+        volatile Node test;
+        volatile Node then;
+        volatile Node otherwise;
+
+        IfNode(Node test, Node then, Node otherwise) {
+            this.test = adopt(test);
+            this.then = adopt(then);
+            this.otherwise = adopt(otherwise);
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            return isTrue(test.execute(frame)) ? then.execute(frame) : otherwise.execute(frame);
+        }
+
+        @Override
+        AbstractSyntaxTree executeTail(Environment frame) {
+            return isTrue(test.execute(frame)) ? then.executeTail(frame) : otherwise.executeTail(frame);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            test = swap(test, child, replacement);
+            then = swap(then, child, replacement);
+            otherwise = swap(otherwise, child, replacement);
+        }
+    }
+
+    static final class CondNode extends Node {
+        volatile Node[] tests;
+        volatile Node[] bodies;
+
+        CondNode(Node[] tests, Node[] bodies) {
+            this.tests = adopt(tests);
+            this.bodies = adopt(bodies);
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            Node[] tests = this.tests;
+            for (int i = 0; i < tests.length; i++)
+                if (isTrue(tests[i].execute(frame)))
+                    return bodies[i].execute(frame);
+            return Bool.FALSE;
+        }
+
+        @Override
+        AbstractSyntaxTree executeTail(Environment frame) {
+            Node[] tests = this.tests;
+            for (int i = 0; i < tests.length; i++)
+                if (isTrue(tests[i].execute(frame)))
+                    return bodies[i].executeTail(frame);
+            return Bool.FALSE;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            tests = swap(tests, child, replacement);
+            bodies = swap(bodies, child, replacement);
+        }
+    }
+
+    /**
+     * Binds `names` in a fresh array frame, filled in order so each binding
+     * sees the ones before it.
+     */
+    static final class LetNode extends Node {
+        final Symbol[] names;
+        volatile Node[] values;
+        volatile Node body;
+
+        LetNode(Symbol[] names, Node[] values, Node body) {
+            this.names = names;
+            this.values = adopt(values);
+            this.body = adopt(body);
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            return body.execute(bind(frame));
+        }
+
+        @Override
+        AbstractSyntaxTree executeTail(Environment frame) {
+            return body.executeTail(bind(frame));
+        }
+
+        private Environment bind(Environment frame) {
+            AbstractSyntaxTree[] slots = new AbstractSyntaxTree[names.length];
+            Environment inner = new Environment(frame, names, slots);
+            Node[] values = this.values;
+            for (int i = 0; i < values.length; i++)
+                slots[i] = values[i].execute(inner);
+            return inner;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            values = swap(values, child, replacement);
+            body = swap(body, child, replacement);
+        }
+    }
+
+    /**
+     * Makes a closure over the frame from a compiled `lambda` form.
+     */
+    static final class LambdaNode extends Node {
+        final Lambda lambda;
+
+        LambdaNode(Lambda lambda) {
+            this.lambda = lambda;
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            return new Closure(frame, lambda);
+        }
+    }
+
+    static final class DefineNode extends Node {
+        final Symbol name;
+        volatile Node value;
+
+        DefineNode(Symbol name, Node value) {
+            this.name = name;
+            this.value = adopt(value);
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            frame.set(name, value.execute(frame));
+            return name;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            value = swap(value, child, replacement);
+        }
+    }
+
+    /**
+     * The function of a compiled `defn-memo`, made to remember its results.
+     */
+    static final class MemoizeNode extends Node {
+        volatile Node procedure;
+
+        MemoizeNode(Node procedure) {
+            this.procedure = adopt(procedure);
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            return new Memoized((Procedure) procedure.execute(frame));
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            procedure = swap(procedure, child, replacement);
+        }
+    }
+
+    /**
+     * The special forms taking one evaluated argument: `atom`, `head`, `tail`
+     * and `empty`.
+     */
+    abstract static class UnaryNode extends Node {
+        volatile Node argument;
+
+        UnaryNode(Node argument) {
+            this.argument = adopt(argument);
+        }
+
+        abstract AbstractSyntaxTree apply(AbstractSyntaxTree value);
+
+        @Override
+        final AbstractSyntaxTree execute(Environment frame) {
+            return apply(argument.execute(frame));
+        }
+
+        @Override
+        final void replaceChild(Node child, Node replacement) {
+            argument = swap(argument, child, replacement);
+        }
+    }
+
+    static final class AtomNode extends UnaryNode {
+        AtomNode(Node argument) {
+            super(argument);
+        }
+
+        @Override
+        AbstractSyntaxTree apply(AbstractSyntaxTree value) {
+            return atom(value);
+        }
+    }
+
+    static final class HeadNode extends UnaryNode {
+        HeadNode(Node argument) {
+            super(argument);
+        }
+
+        @Override
+        AbstractSyntaxTree apply(AbstractSyntaxTree value) {
+            return head(value);
+        }
+    }
+
+    static final class TailNode extends UnaryNode {
+        TailNode(Node argument) {
+            super(argument);
+        }
+
+        @Override
+        AbstractSyntaxTree apply(AbstractSyntaxTree value) {
+            return tail(value);
+        }
+    }
+
+    static final class EmptyNode extends UnaryNode {
+        EmptyNode(Node argument) {
+            super(argument);
+        }
+
+        @Override
+        AbstractSyntaxTree apply(AbstractSyntaxTree value) {
+            return empty(value);
+        }
+    }
+
+    /**
+     * The special forms taking two evaluated arguments.
+     */
+    abstract static class BinaryNode extends Node {
+        volatile Node left;
+        volatile Node right;
+
+        BinaryNode(Node left, Node right) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+        }
+
+        @Override
+        final void replaceChild(Node child, Node replacement) {
+            left = swap(left, child, replacement);
+            right = swap(right, child, replacement);
+        }
+    }
+
+    static final class EqNode extends BinaryNode {
+        EqNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            return eq(left.execute(frame), right.execute(frame));
+        }
+    }
+
+    static final class ConsNode extends BinaryNode {
+        ConsNode(Node left, Node right) {
+            super(left, right);
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            return cons(left.execute(frame), right.execute(frame));
+        }
+    }
+
+    /**
+     * `lazy-range`, `lazy-map` and `lazy-filter`.
+     */
+    static final class LazyNode extends BinaryNode {
+        final Symbol form;
+
+        LazyNode(Symbol form, Node left, Node right) {
+            super(left, right);
+            this.form = form;
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            return lazy(form, left.execute(frame), right.execute(frame));
+        }
+    }
+
+    /**
+     * Starts running `expression` on a task of its own, over the frame.
+     */
+    static final class SpawnNode extends Node {
+        volatile Node expression;
+
+        SpawnNode(Node expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            return Task.spawn(expression::execute, frame);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            expression = swap(expression, child, replacement);
+        }
+    }
+
+    /**
+     * Arithmetic that has not run yet. On its first run it replaces itself
+     * with a version for the operand types it sees.
+     */
+    static final class ArithmeticNode extends BinaryNode {
+        final Symbol operator;
+
+        ArithmeticNode(Symbol operator, Node left, Node right) {
+            super(left, right);
+            this.operator = operator;
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            AbstractSyntaxTree a = left.execute(frame);
+            AbstractSyntaxTree b = right.execute(frame);
+            if (Int.isFixnum(a) && Int.isFixnum(b))
+                replace(() -> IntArithmeticNode.create(operator, left, right));
+            else
+                replace(() -> new GenericArithmeticNode(operator, left, right));
+            return arithmetic(operator, a, b);
+        }
+    }
+
+    /**
+     * Arithmetic on operands that have so far always been numbers that fit
+     * in a `long`. The operands are run with `executeLong`, so those that are
+     * arithmetic themselves hand over their results without boxing them.
+     * Should an operand be anything else, or the result not fit, it goes back
+     * to the generic version for good.
+     */
+    abstract static class IntArithmeticNode extends BinaryNode {
+        final Symbol operator;
+
+        IntArithmeticNode(Symbol operator, Node left, Node right) {
+            super(left, right);
+            this.operator = operator;
+        }
+
+        static IntArithmeticNode create(Symbol operator, Node left, Node right) {
+            if (operator == PLUS) return new AddNode(left, right);
+            if (operator == MINUS) return new SubtractNode(left, right);
+            if (operator == TIMES) return new MultiplyNode(left, right);
+            if (operator == DIVIDE) return new DivideNode(left, right);
+            if (operator == MOD) return new ModNode(left, right);
+            return new GreaterNode(left, right);
+        }
+
+        abstract AbstractSyntaxTree apply(long a, long b);
+
+        @Override
+        final AbstractSyntaxTree execute(Environment frame) {
+            long a;
+            try {
+                a = left.executeLong(frame);
+            } catch (UnexpectedResult e) {
+                return generalize(e.value, right.execute(frame));
+            }
+            long b;
+            try {
+                b = right.executeLong(frame);
+            } catch (UnexpectedResult e) {
+                return generalize(Int.number(a), e.value);
+            }
+            return apply(a, b);
+        }
+
+        final AbstractSyntaxTree generalize(AbstractSyntaxTree a, AbstractSyntaxTree b) {
+            replace(() -> new GenericArithmeticNode(operator, left, right));
+            return arithmetic(operator, a, b);
+        }
+    }
+
+    /**
+     * The arithmetic nodes with a number for a result.
+     */
+    abstract static class IntOperationNode extends IntArithmeticNode {
+        IntOperationNode(Symbol operator, Node left, Node right) {
+            super(operator, left, right);
+        }
+
+        abstract long operate(long a, long b);
+
+        /**
+         * Whether `result`, from `operate`, has overflowed.
+         */
+        abstract boolean overflows(long a, long b, long result);
+
+        @Override
+        final AbstractSyntaxTree apply(long a, long b) {
+            long result = operate(a, b);
+            if (overflows(a, b, result))
+                return generalize(Int.number(a), Int.number(b));
+            return Int.number(result);
+        }
+
+        @Override
+        final long executeLong(Environment frame) {
+            long a;
+            try {
+                a = left.executeLong(frame);
+            } catch (UnexpectedResult e) {
+                return unbox(generalize(e.value, right.execute(frame)));
+            }
+            long b;
+            try {
+                b = right.executeLong(frame);
+            } catch (UnexpectedResult e) {
+                return unbox(generalize(Int.number(a), e.value));
+            }
+            long result = operate(a, b);
+            if (overflows(a, b, result))
+                return unbox(generalize(Int.number(a), Int.number(b)));
+            return result;
+        }
+
+        private static long unbox(AbstractSyntaxTree value) {
+            if (Int.isFixnum(value))
+                return ((Int) value).value();
+            throw new UnexpectedResult(value);
+        }
+    }
+
+    static final class AddNode extends IntOperationNode {
+        AddNode(Node left, Node right) {
+            super(PLUS, left, right);
+        }
+
+        @Override
+        long operate(long a, long b) {
+            return a + b;
+        }
+
+        @Override
+        boolean overflows(long a, long b, long result) {
+            return Int.addOverflows(a, b, result);
+        }
+    }
+
+    static final class SubtractNode extends IntOperationNode {
+        SubtractNode(Node left, Node right) {
+            super(MINUS, left, right);
+        }
+
+        @Override
+        long operate(long a, long b) {
+            return a - b;
+        }
+
+        @Override
+        boolean overflows(long a, long b, long result) {
+            return Int.subtractOverflows(a, b, result);
+        }
+    }
+
+    static final class MultiplyNode extends IntOperationNode {
+        MultiplyNode(Node left, Node right) {
+            super(TIMES, left, right);
+        }
+
+        @Override
+        long operate(long a, long b) {
+            return a * b;
+        }
+
+        @Override
+        boolean overflows(long a, long b, long result) {
+            return Int.multiplyOverflows(a, b);
+        }
+    }
+
+    static final class DivideNode extends IntOperationNode {
+        DivideNode(Node left, Node right) {
+            super(DIVIDE, left, right);
+        }
+
+        @Override
+        long operate(long a, long b) {
+            return Int.quotient(a, b);
+        }
+
+        @Override
+        boolean overflows(long a, long b, long result) {
+            return Int.divideOverflows(a, b);
+        }
+    }
+
+    static final class ModNode extends IntOperationNode {
+        ModNode(Node left, Node right) {
+            super(MOD, left, right);
+        }
+
+        @Override
+        long operate(long a, long b) {
+            return Int.remainder(a, b);
+        }
+
+        @Override
+        boolean overflows(long a, long b, long result) {
+            return false;
+        }
+    }
+
+    static final class GreaterNode extends IntArithmeticNode {
+        GreaterNode(Node left, Node right) {
+            super(GREATER, left, right);
+        }
+
+        @Override
+        AbstractSyntaxTree apply(long a, long b) {
+            return Bool.bool(a > b);
+        }
+    }
+
+    static final class GenericArithmeticNode extends BinaryNode {
+        final Symbol operator;
+
+        GenericArithmeticNode(Symbol operator, Node left, Node right) {
+            super(left, right);
+            this.operator = operator;
+        }
+
+        AbstractSyntaxTree apply(AbstractSyntaxTree a, AbstractSyntaxTree b) {
+            return arithmetic(operator, a, b);
+        }
+
+        @Override
+        AbstractSyntaxTree execute(Environment frame) {
+            return apply(left.execute(frame), right.execute(frame));
+        }
+    }
+
+    /**
+     * A call of the value of `function` with `arguments`. The subclasses
+     * differ in what kind of function they expect to call.
+     */
+    abstract static class AbstractCallNode extends Node {
+        volatile Node function;
+        volatile Node[] arguments;
+        final List<AbstractSyntaxTree> exps;
+
+        AbstractCallNode(Node function, Node[] arguments, List<AbstractSyntaxTree> exps) {
+            this.function = adopt(function);
+            this.arguments = adopt(arguments);
+            this.exps = exps;
+        }
+
+        abstract AbstractSyntaxTree call(AbstractSyntaxTree callee, Environment frame, boolean tail);
+
+        @Override
+        final AbstractSyntaxTree execute(Environment frame) {
+            return call(function.execute(frame), frame, false);
+        }
+
+        @Override
+        final AbstractSyntaxTree executeTail(Environment frame) {
+            return call(function.execute(frame), frame, true);
+        }
+
+        /**
+         * Calls not in tail position, with up to four arguments, go through
+         * the entry point for their number of arguments.
+         */
+        final AbstractSyntaxTree callProcedure(Procedure procedure, Environment frame, boolean tail) {
+            Node[] arguments = this.arguments;
+            procedure.checkArguments(arguments.length);
+            if (!tail) {
+                switch (arguments.length) {
+                    case 0:
+                        return procedure.call0();
+                    case 1:
+                        return procedure.call1(arguments[0].execute(frame));
+                    case 2:
+                        return procedure.call2(arguments[0].execute(frame), arguments[1].execute(frame));
+                    case 3:
+                        return procedure.call3(arguments[0].execute(frame), arguments[1].execute(frame),
+                                arguments[2].execute(frame));
+                    case 4:
+                        return procedure.call4(arguments[0].execute(frame), arguments[1].execute(frame),
+                                arguments[2].execute(frame), arguments[3].execute(frame));
+                }
+            }
+
+            AbstractSyntaxTree[] args = new AbstractSyntaxTree[arguments.length];
+            for (int i = 0; i < args.length; i++)
+                args[i] = arguments[i].execute(frame);
+            return tail ? procedure.tailCall(args) : procedure.call(args);
+        }
+
+        /**
+         * Calls anything, as `GenericCallNode` does.
+         */
+        final AbstractSyntaxTree callAny(AbstractSyntaxTree callee, Environment frame, boolean tail) {
+            if (callee instanceof Procedure)
+                return callProcedure((Procedure) callee, frame, tail);
+            return tail ? callee.evaluateTail(exps, frame) : callee.evaluate(exps, frame);
+        }
+
+        @Override
+        final void replaceChild(Node child, Node replacement) {
+            function = swap(function, child, replacement);
+            arguments = swap(arguments, child, replacement);
+        }
+    }
+
+    /**
+     * A call that has not run yet.
+     */
+    static final class CallNode extends AbstractCallNode {
+        CallNode(Node function, Node[] arguments, List<AbstractSyntaxTree> exps) {
+            super(function, arguments, exps);
+        }
+
+        @Override
+        AbstractSyntaxTree call(AbstractSyntaxTree callee, Environment frame, boolean tail) {
+            if (callee instanceof Closure)
+                replace(() -> new ClosureCallNode(function, arguments, exps));
+            else
+                replace(() -> new GenericCallNode(function, arguments, exps));
+            return callAny(callee, frame, tail);
+        }
+    }
+
+    /**
+     * A call that has so far always been to a closure.
+     */
+    static final class ClosureCallNode extends AbstractCallNode {
+        ClosureCallNode(Node function, Node[] arguments, List<AbstractSyntaxTree> exps) {
+            super(function, arguments, exps);
+        }
+
+        @Override
+        AbstractSyntaxTree call(AbstractSyntaxTree callee, Environment frame, boolean tail) {
+            if (callee instanceof Closure)
+                return callProcedure((Closure) callee, frame, tail);
+            replace(() -> new GenericCallNode(function, arguments, exps));
+            return callAny(callee, frame, tail);
+        }
+    }
+
+    /**
+     * A call to anything. Values other than closures and builtins are handed
+     * the arguments unevaluated, as the tree-walking evaluator does.
+     */
+    static final class GenericCallNode extends AbstractCallNode {
+        GenericCallNode(Node function, Node[] arguments, List<AbstractSyntaxTree> exps) {
+            super(function, arguments, exps);
+        }
+
+        @Override
+        AbstractSyntaxTree call(AbstractSyntaxTree callee, Environment frame, boolean tail) {
+            return callAny(callee, frame, tail);
+        }
+    }
+}
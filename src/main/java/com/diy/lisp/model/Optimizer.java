@@ -0,0 +1,390 @@
+package com.diy.lisp.model;
+
+import com.diy.lisp.exception.LispException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.diy.lisp.model.SList.list;
+import static com.diy.lisp.model.SList.quote;
+import static com.diy.lisp.model.SpecialForms.*;
+
+/**
+ * Simplifies programs before they are evaluated, by doing the work that does
+ * not depend on anything only known at run time:
+ *
+ *  - Special forms without side effects whose arguments are all literals are
+ *    replaced by their values: `(* 60 60)` by `3600`.
+ *  - `if` and `cond` with literal conditions are replaced by the branch taken.
+ *  - Global variables holding numbers, booleans or strings are replaced by
+ *    their values, as globals can not be redefined.
+ *  - Calls of small, non-recursive global functions with literal arguments,
+ *    like `(not #t)` from the standard library, are replaced by their value,
+ *    if the body of the function simplifies to a literal for them.
+ *
+ * Forms that would fail, like `(/ 1 0)`, or that are malformed, are left as
+ * they are, to fail when evaluated, like before.
+ *
+ * The optimizer is on unless the system property `diy.lisp.optimize` is set
+ * to false. With `diy.lisp.optimize.dump` set to true, every top-level form
+ * it changes is printed to standard error along with what it became.
+ */
+public final class Optimizer {
+
+    /** Functions with bodies of more atoms than this are not inlined. */
+    private static final int INLINE_SIZE = 24;
+
+    /** How deep inlined functions are inlined into in turn. */
+    private static final int INLINE_DEPTH = 8;
+
+    private static volatile boolean enabled = !"false".equals(System.getProperty("diy.lisp.optimize"));
+    private static volatile boolean dump = Boolean.getBoolean("diy.lisp.optimize.dump");
+
+    private Optimizer() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean enabled) {
+        Optimizer.enabled = enabled;
+    }
+
+    public static void setDump(boolean dump) {
+        Optimizer.dump = dump;
+    }
+
+    /**
+     * Returns `ast`, to be evaluated in `env`, simplified; or `ast` itself if
+     * the optimizer is off.
+     */
+    public static AbstractSyntaxTree optimize(AbstractSyntaxTree ast, Environment env) {
+        if (!enabled)
+            return ast;
+
+        AbstractSyntaxTree optimized = new Pass(env).optimize(ast, Bound.NONE, 0);
+        if (dump && !optimized.equals(ast))
+            System.err.println(String.format(";; %s%n;; => %s", ast, optimized));
+        return optimized;
+    }
+
+    /**
+     * The names bound by the forms around an expression, which hide the
+     * global variables of the same names.
+     */
+    private static final class Bound {
+        static final Bound NONE = new Bound(new Symbol[0], null, false);
+
+        final Symbol[] names;
+        final Bound parent;
+
+        /**
+         * Set inside functions that may `define` variables of their own, so
+         * any name may be bound locally.
+         */
+        final boolean opaque;
+
+        Bound(Symbol[] names, Bound parent, boolean opaque) {
+            this.names = names;
+            this.parent = parent;
+            this.opaque = opaque || parent != null && parent.opaque;
+        }
+
+        boolean binds(Symbol name) {
+            if (opaque)
+                return true;
+            for (Bound bound = this; bound != null; bound = bound.parent)
+                for (Symbol candidate : bound.names)
+                    if (candidate == name)
+                        return true;
+            return false;
+        }
+    }
+
+    private static final class Pass {
+        private final Environment env;
+
+        /**
+         * Whether global variables may be relied on. In an environment with
+         * a parent, a variable found in the parent could still be hidden by
+         * a definition made later.
+         */
+        private final boolean globals;
+
+        Pass(Environment env) {
+            this.env = env;
+            this.globals = env.parent == null;
+        }
+
+        AbstractSyntaxTree optimize(AbstractSyntaxTree ast, Bound bound, int depth) {
+            if (ast instanceof Symbol)
+                return global((Symbol) ast, bound);
+            if (!(ast instanceof SList) || ((SList) ast).isEmpty())
+                return ast;
+
+            SList list = (SList) ast;
+            AbstractSyntaxTree head = list.head();
+            if (head instanceof Symbol && isSpecialForm((Symbol) head))
+                return specialForm((Symbol) head, list, bound, depth);
+
+            List<AbstractSyntaxTree> exps = new ArrayList<>();
+            exps.add(head instanceof Symbol ? head : optimize(head, bound, depth));
+            for (AbstractSyntaxTree exp : list.tail())
+                exps.add(optimize(exp, bound, depth));
+            if (head instanceof Symbol && globals && !bound.binds((Symbol) head)) {
+                AbstractSyntaxTree inlined = inline((Symbol) head, exps.subList(1, exps.size()), depth);
+                if (inlined != null)
+                    return inlined;
+            }
+            return list(exps);
+        }
+
+        /**
+         * A global variable is replaced by its value, if that is one that
+         * can be written as a literal.
+         */
+        private AbstractSyntaxTree global(Symbol symbol, Bound bound) {
+            if (!globals || bound.binds(symbol))
+                return symbol;
+            AbstractSyntaxTree value = lookup(symbol);
+            return value instanceof Int || value instanceof Bool || value instanceof Str ? value : symbol;
+        }
+
+        private AbstractSyntaxTree specialForm(Symbol form, SList list, Bound bound, int depth) {
+            int size = list.size();
+
+            if (form == QUOTE)
+                return list;
+            if ((form == ATOM || form == HEAD || form == TAIL || form == EMPTY) && size == 2)
+                return fold(form, list, bound, depth);
+            if ((form == EQ || form == CONS || form == PLUS || form == MINUS || form == TIMES || form == DIVIDE
+                    || form == MOD || form == GREATER) && size == 3)
+                return fold(form, list, bound, depth);
+            if (form == IF && size == 4) {
+                AbstractSyntaxTree test = optimize(list.get(1), bound, depth);
+                if (isLiteral(test))
+                    return optimize(list.get(isTrue(value(test)) ? 2 : 3), bound, depth);
+                return list(IF, test, optimize(list.get(2), bound, depth), optimize(list.get(3), bound, depth));
+            }
+            if (form == COND && size == 2 && isPairList(list.get(1)))
+                return cond((SList) list.get(1), bound, depth);
+            if (form == DEFINE && size == 3 && list.get(1) instanceof Symbol)
+                return list(DEFINE, list.get(1), optimize(list.get(2), bound, depth));
+            if (form == LAMBDA && size == 3 && isParameterList(list.get(1)))
+                return list(LAMBDA, list.get(1), body((SList) list.get(1), list.get(2), bound, depth));
+            if (form == LAZY_RANGE || form == LAZY_MAP || form == LAZY_FILTER || form == SPAWN)
+                return arguments(list, bound, depth);
+            if ((form == DEFN || form == DEFN_MEMO) && size == 4 && list.get(1) instanceof Symbol
+                    && isParameterList(list.get(2)))
+                return list(form, list.get(1), list.get(2), body((SList) list.get(2), list.get(3), bound, depth));
+            if (form == LET && size == 3 && isPairList(list.get(1)))
+                return let((SList) list.get(1), list.get(2), bound, depth);
+
+            return list;
+        }
+
+        /**
+         * Optimizes the arguments of a form that is kept, for forms whose
+         * values cannot be written as literals.
+         */
+        private AbstractSyntaxTree arguments(SList list, Bound bound, int depth) {
+            List<AbstractSyntaxTree> exps = new ArrayList<>();
+            exps.add(list.head());
+            for (AbstractSyntaxTree exp : list.tail())
+                exps.add(optimize(exp, bound, depth));
+            return list(exps);
+        }
+
+        /**
+         * Folds a form whose arguments are all literals, and that does not
+         * fail, into its value.
+         */
+        private AbstractSyntaxTree fold(Symbol form, SList list, Bound bound, int depth) {
+            List<AbstractSyntaxTree> exps = new ArrayList<>();
+            exps.add(form);
+            boolean literals = true;
+            for (AbstractSyntaxTree exp : list.tail()) {
+                AbstractSyntaxTree optimized = optimize(exp, bound, depth);
+                literals &= isLiteral(optimized);
+                exps.add(optimized);
+            }
+            if (!literals)
+                return list(exps);
+
+            try {
+                return literal(list(exps).evaluate(env));
+            } catch (LispException e) {
+                return list(exps);
+            }
+        }
+
+        private AbstractSyntaxTree cond(SList clauses, Bound bound, int depth) {
+            List<AbstractSyntaxTree> kept = new ArrayList<>();
+            for (AbstractSyntaxTree clause : clauses) {
+                AbstractSyntaxTree test = optimize(((SList) clause).get(0), bound, depth);
+                boolean literal = isLiteral(test);
+                if (literal && !isTrue(value(test)))
+                    continue;
+                AbstractSyntaxTree body = optimize(((SList) clause).get(1), bound, depth);
+                if (literal && kept.isEmpty())
+                    return body;
+                kept.add(list(test, body));
+                if (literal)
+                    break;
+            }
+            return kept.isEmpty() ? Bool.FALSE : list(COND, list(kept));
+        }
+
+        private AbstractSyntaxTree let(SList bindings, AbstractSyntaxTree body, Bound bound, int depth) {
+            Symbol[] names = new Symbol[bindings.size()];
+            int i = 0;
+            for (AbstractSyntaxTree binding : bindings) {
+                if (!(((SList) binding).get(0) instanceof Symbol))
+                    return list(LET, bindings, body);
+                names[i++] = (Symbol) ((SList) binding).get(0);
+            }
+
+            Bound inner = new Bound(names, bound, defines(body));
+            List<AbstractSyntaxTree> optimized = new ArrayList<>();
+            for (AbstractSyntaxTree binding : bindings)
+                optimized.add(list(((SList) binding).get(0), optimize(((SList) binding).get(1), inner, depth)));
+            return list(LET, list(optimized), optimize(body, inner, depth));
+        }
+
+        private AbstractSyntaxTree body(SList params, AbstractSyntaxTree body, Bound bound, int depth) {
+            Symbol[] names = new Symbol[params.size()];
+            int i = 0;
+            for (AbstractSyntaxTree param : params)
+                names[i++] = (Symbol) param;
+            return optimize(body, new Bound(names, bound, defines(body)), depth);
+        }
+
+        /**
+         * Simplifies the body of the global function `name`, with `args`
+         * substituted for the parameters, returning the result if that is a
+         * literal, or null. Only tried for small functions that do not call
+         * themselves, with literal arguments.
+         */
+        private AbstractSyntaxTree inline(Symbol name, List<AbstractSyntaxTree> args, int depth) {
+            AbstractSyntaxTree value = lookup(name);
+            if (!(value instanceof Closure) || depth >= INLINE_DEPTH)
+                return null;
+            Closure closure = (Closure) value;
+            if (closure.env != env || closure.params.size() != args.size())
+                return null;
+            for (AbstractSyntaxTree arg : args)
+                if (!isLiteral(arg))
+                    return null;
+            if (size(closure.body) > INLINE_SIZE || mentions(closure.body, name) || !isPlain(closure.body))
+                return null;
+
+            List<Symbol> params = new ArrayList<>();
+            for (AbstractSyntaxTree param : closure.params)
+                params.add((Symbol) param);
+            AbstractSyntaxTree inlined = optimize(substitute(closure.body, params, args), Bound.NONE, depth + 1);
+            return isLiteral(inlined) ? inlined : null;
+        }
+
+        private AbstractSyntaxTree lookup(Symbol symbol) {
+            try {
+                return env.lookup(symbol);
+            } catch (LispException e) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Whether `ast` evaluates to itself, or is quoted.
+     */
+    private static boolean isLiteral(AbstractSyntaxTree ast) {
+        if (ast instanceof Int || ast instanceof Bool || ast instanceof Str)
+            return true;
+        return ast instanceof SList && ((SList) ast).size() == 2 && ((SList) ast).head() == QUOTE;
+    }
+
+    private static AbstractSyntaxTree value(AbstractSyntaxTree literal) {
+        return literal instanceof SList ? ((SList) literal).get(1) : literal;
+    }
+
+    private static AbstractSyntaxTree literal(AbstractSyntaxTree value) {
+        return value instanceof Int || value instanceof Bool || value instanceof Str ? value : quote(value);
+    }
+
+    /**
+     * Replaces `params` by `args` in `ast`, except where quoted. Only used on
+     * bodies without forms that bind variables; see `isPlain`.
+     */
+    private static AbstractSyntaxTree substitute(AbstractSyntaxTree ast, List<Symbol> params, List<AbstractSyntaxTree> args) {
+        if (ast instanceof Symbol) {
+            int i = params.indexOf(ast);
+            return i >= 0 ? args.get(i) : ast;
+        }
+        if (!(ast instanceof SList) || ((SList) ast).isEmpty())
+            return ast;
+
+        SList list = (SList) ast;
+        if (list.head() == QUOTE)
+            return list;
+        List<AbstractSyntaxTree> exps = new ArrayList<>();
+        for (AbstractSyntaxTree exp : list)
+            exps.add(substitute(exp, params, args));
+        return list(exps);
+    }
+
+    /**
+     * Whether `ast` has no forms that bind variables, which `substitute`
+     * does not handle.
+     */
+    private static boolean isPlain(AbstractSyntaxTree ast) {
+        if (ast == DEFINE || ast == DEFN || ast == DEFN_MEMO || ast == LAMBDA || ast == LET)
+            return false;
+        if (ast instanceof SList && !((SList) ast).isEmpty() && ((SList) ast).head() != QUOTE)
+            for (AbstractSyntaxTree exp : (SList) ast)
+                if (!isPlain(exp))
+                    return false;
+        return true;
+    }
+
+    private static boolean mentions(AbstractSyntaxTree ast, Symbol name) {
+        if (ast == name)
+            return true;
+        if (ast instanceof SList)
+            for (AbstractSyntaxTree exp : (SList) ast)
+                if (mentions(exp, name))
+                    return true;
+        return false;
+    }
+
+    private static int size(AbstractSyntaxTree ast) {
+        if (!(ast instanceof SList))
+            return 1;
+        int size = 0;
+        for (AbstractSyntaxTree exp : (SList) ast)
+            size += size(exp);
+        return size;
+    }
+
+    private static boolean defines(AbstractSyntaxTree ast) {
+        return mentions(ast, DEFINE) || mentions(ast, DEFN) || mentions(ast, DEFN_MEMO);
+    }
+
+    private static boolean isParameterList(AbstractSyntaxTree ast) {
+        if (!(ast instanceof SList))
+            return false;
+        for (AbstractSyntaxTree param : (SList) ast)
+            if (!(param instanceof Symbol))
+                return false;
+        return true;
+    }
+
+    private static boolean isPairList(AbstractSyntaxTree ast) {
+        if (!(ast instanceof SList))
+            return false;
+        for (AbstractSyntaxTree pair : (SList) ast)
+            if (!(pair instanceof SList) || ((SList) pair).size() != 2)
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,159 @@
+package com.diy.lisp.model;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import static com.diy.lisp.model.SpecialForms.isTrue;
+
+/**
+ * `pmap`, `pfilter` and `preduce`: `map`, `filter` and `reduce` calling
+ * their function on several threads at once, for functions slow enough for
+ * that to pay off.
+ *
+ * The elements are split in halves until there are at most `threshold` of
+ * them, and the halves are run as fork-join tasks: the calling thread works
+ * on one half, while idle threads of the common pool steal the other. The
+ * results come back in the order of the elements, as from the sequential
+ * versions. `preduce` combines the results of the halves with its function
+ * too, which must therefore be associative.
+ *
+ * The functions run on other threads than the caller's, so the environment
+ * of a closure is first switched to its concurrency-safe mode, as for
+ * `spawn` (see `Environment`). They get the stack of a pool thread for their
+ * own recursion. Arguments are lists
+ * or lazy sequences; a sequence is walked into an array first.
+ *
+ * The threshold is 100 elements unless the system property
+ * `diy.lisp.parallel.threshold` is set. Lists no longer than it are run on
+ * the calling thread alone.
+ */
+public final class Parallel {
+
+    private static volatile int threshold = Integer.getInteger("diy.lisp.parallel.threshold", 100);
+
+    private Parallel() {
+    }
+
+    public static int threshold() {
+        return threshold;
+    }
+
+    /**
+     * Sets the number of elements below which a list is no longer split.
+     */
+    public static void setThreshold(int elements) {
+        if (elements < 1)
+            throw new IllegalArgumentException("threshold must be positive: " + elements);
+        threshold = elements;
+    }
+
+    static SList map(Procedure fn, AbstractSyntaxTree[] values) {
+        share(fn);
+        AbstractSyntaxTree[] results = new AbstractSyntaxTree[values.length];
+        new Split((from, to) -> {
+            for (int i = from; i < to; i++)
+                results[i] = fn.call1(values[i]);
+        }, 0, values.length, threshold).invoke();
+        return SList.list(results);
+    }
+
+    static SList filter(Procedure pred, AbstractSyntaxTree[] values) {
+        share(pred);
+        boolean[] kept = new boolean[values.length];
+        new Split((from, to) -> {
+            for (int i = from; i < to; i++)
+                kept[i] = isTrue(pred.call1(values[i]));
+        }, 0, values.length, threshold).invoke();
+
+        List<AbstractSyntaxTree> results = new ArrayList<>();
+        for (int i = 0; i < values.length; i++)
+            if (kept[i])
+                results.add(values[i]);
+        return SList.list(results);
+    }
+
+    static AbstractSyntaxTree reduce(Procedure fn, AbstractSyntaxTree acc, AbstractSyntaxTree[] values) {
+        if (values.length == 0)
+            return acc;
+        share(fn);
+        return fn.call2(acc, new Reduce(fn, values, 0, values.length, threshold).invoke());
+    }
+
+    private static void share(Procedure fn) {
+        if (fn instanceof Memoized)
+            share(((Memoized) fn).procedure);
+        else if (fn instanceof Closure)
+            ((Closure) fn).env.makeConcurrent();
+    }
+
+    private interface Chunk {
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs `chunk` over the indexes from `from` up to `to`, split in pieces
+     * of at most `size`.
+     */
+    private static final class Split extends RecursiveAction {
+        private final Chunk chunk;
+        private final int from;
+        private final int to;
+        private final int size;
+
+        Split(Chunk chunk, int from, int to, int size) {
+            this.chunk = chunk;
+            this.from = from;
+            this.to = to;
+            this.size = size;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= size) {
+                chunk.run(from, to);
+                return;
+            }
+
+            int middle = (from + to) >>> 1;
+            invokeAll(new Split(chunk, from, middle, size), new Split(chunk, middle, to, size));
+        }
+    }
+
+    /**
+     * Combines the elements from `from` up to `to`, of which there is at
+     * least one, with `fn`.
+     */
+    private static final class Reduce extends RecursiveTask<AbstractSyntaxTree> {
+        private final Procedure fn;
+        private final AbstractSyntaxTree[] values;
+        private final int from;
+        private final int to;
+        private final int size;
+
+        Reduce(Procedure fn, AbstractSyntaxTree[] values, int from, int to, int size) {
+            this.fn = fn;
+            this.values = values;
+            this.from = from;
+            this.to = to;
+            this.size = size;
+        }
+
+        @Override
+        protected AbstractSyntaxTree compute() {
+            if (to - from <= size) {
+                AbstractSyntaxTree acc = values[from];
+                for (int i = from + 1; i < to; i++)
+                    acc = fn.call2(acc, values[i]);
+                return acc;
+            }
+
+            int middle = (from + to) >>> 1;
+            Reduce right = new Reduce(fn, values, middle, to, size);
+            right.fork();
+            AbstractSyntaxTree left = new Reduce(fn, values, from, middle, size).compute();
+            return fn.call2(left, right.join());
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.diy.lisp.model;
+
+import java.util.List;
+
+/**
+ * A value that can be called with evaluated arguments: a closure or a
+ * builtin.
+ *
+ * Calls with up to four arguments have an entry point of their own, so
+ * callers that know how many arguments they pass, such as the call nodes and
+ * the bytecode engine, hand them over without building any collection. The
+ * one array made for a closure call is the frame of the call itself.
+ */
+public abstract class Procedure extends AbstractSyntaxTree {
+
+    private static final AbstractSyntaxTree[] NO_ARGUMENTS = new AbstractSyntaxTree[0];
+
+    @Override
+    public final AbstractSyntaxTree evaluate(Environment env) {
+        return this;
+    }
+
+    /**
+     * Calls from the tree-walking evaluator. The number of arguments is
+     * checked before any of them is evaluated.
+     */
+    @Override
+    public final AbstractSyntaxTree evaluate(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(exps.size());
+        return call(arguments(exps, env));
+    }
+
+    @Override
+    final AbstractSyntaxTree evaluateTail(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(exps.size());
+        return tailCall(arguments(exps, env));
+    }
+
+    public AbstractSyntaxTree call0() {
+        checkArguments(0);
+        return call(NO_ARGUMENTS);
+    }
+
+    public AbstractSyntaxTree call1(AbstractSyntaxTree a) {
+        checkArguments(1);
+        return call(new AbstractSyntaxTree[]{a});
+    }
+
+    public AbstractSyntaxTree call2(AbstractSyntaxTree a, AbstractSyntaxTree b) {
+        checkArguments(2);
+        return call(new AbstractSyntaxTree[]{a, b});
+    }
+
+    public AbstractSyntaxTree call3(AbstractSyntaxTree a, AbstractSyntaxTree b, AbstractSyntaxTree c) {
+        checkArguments(3);
+        return call(new AbstractSyntaxTree[]{a, b, c});
+    }
+
+    public AbstractSyntaxTree call4(AbstractSyntaxTree a, AbstractSyntaxTree b, AbstractSyntaxTree c,
+                                    AbstractSyntaxTree d) {
+        checkArguments(4);
+        return call(new AbstractSyntaxTree[]{a, b, c, d});
+    }
+
+    /**
+     * Calls with any number of arguments. `args` is used as it is, and must
+     * not be changed afterwards.
+     */
+    public AbstractSyntaxTree apply(AbstractSyntaxTree... args) {
+        checkArguments(args.length);
+        return call(args);
+    }
+
+    /**
+     * Runs the call, with arguments already checked by `checkArguments`.
+     */
+    abstract AbstractSyntaxTree call(AbstractSyntaxTree[] args);
+
+    /**
+     * Like `call`, for a call in tail position: closures return a `TailCall`
+     * to be run by the caller's loop instead.
+     */
+    AbstractSyntaxTree tailCall(AbstractSyntaxTree[] args) {
+        return call(args);
+    }
+
+    abstract void checkArguments(int count);
+
+    private static AbstractSyntaxTree[] arguments(List<AbstractSyntaxTree> exps, Environment env) {
+        AbstractSyntaxTree[] args = new AbstractSyntaxTree[exps.size()];
+        int i = 0;
+        for (AbstractSyntaxTree exp : exps)
+            args[i++] = exp.evaluate(env);
+        return args;
+    }
+}
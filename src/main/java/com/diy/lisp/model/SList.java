@@ -1,27 +1,57 @@
 package com.diy.lisp.model;
 
-import com.diy.lisp.exception.NotImplementedException;
+import com.diy.lisp.exception.LispException;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.NoSuchElementException;
 
 import static com.diy.lisp.model.Symbol.symbol;
 
-public class SList extends AbstractSyntaxTree implements Iterable<AbstractSyntaxTree> {
+/**
+ * Lists are immutable chains of cons cells. Each SList is one cell, holding
+ * the first element and the rest of the list, which is shared rather than
+ * copied. This makes `cons`, `head` and `tail` constant time operations.
+ */
+public final class SList extends AbstractSyntaxTree implements Iterable<AbstractSyntaxTree> {
 
-    private List<AbstractSyntaxTree> expressions;
+    private static final Symbol QUOTE = symbol("quote");
+
+    private final AbstractSyntaxTree head;
+    private final SList tail;
+    private final int size;
+    private int hash;
 
     @Override
     public AbstractSyntaxTree evaluate(List<AbstractSyntaxTree> exps, Environment env) {
-        throw new NotImplementedException("Not implemented yet. You'll do this part on your own");
+        return evaluate(env).evaluate(exps, env);
     }
 
+    /**
+     * A list is a call: the head is a special form or evaluates to a function,
+     * and the rest of the list are its arguments.
+     */
     @Override
     public AbstractSyntaxTree evaluate(Environment env) {
-        throw new NotImplementedException("Not implemented yet. You'll do this part on your own");
+        if (isEmpty())
+            throw new LispException("Cannot call the empty list. Did you mean '()?");
+
+        return head.evaluate(tail.asList(), env);
+    }
+
+    @Override
+    AbstractSyntaxTree evaluateTail(Environment env) {
+        if (isEmpty())
+            return evaluate(env);
+
+        return head.evaluateTail(tail.asList(), env);
+    }
+
+    @Override
+    AbstractSyntaxTree evaluateTail(List<AbstractSyntaxTree> exps, Environment env) {
+        return evaluate(env).evaluateTail(exps, env);
     }
 
     /**
@@ -30,11 +60,17 @@ public class SList extends AbstractSyntaxTree implements Iterable<AbstractSyntax
      */
 
     public SList(List<AbstractSyntaxTree> expressions) {
-        this.expressions = expressions;
+        this(expressions.isEmpty() ? null : expressions.get(0), fromList(expressions, 1), expressions.size());
     }
 
     public SList(AbstractSyntaxTree... expressions) {
-        this.expressions = Arrays.asList(expressions);
+        this(Arrays.asList(expressions));
+    }
+
+    private SList(AbstractSyntaxTree head, SList tail, int size) {
+        this.head = head;
+        this.tail = tail;
+        this.size = size;
     }
 
     public static SList list(AbstractSyntaxTree... expressions) {
@@ -46,8 +82,20 @@ public class SList extends AbstractSyntaxTree implements Iterable<AbstractSyntax
     }
 
     public static SList quote(AbstractSyntaxTree expression) {
-        ArrayList<AbstractSyntaxTree> exps = new ArrayList(Arrays.asList(symbol("quote"), expression));
-        return list(exps);
+        return list(QUOTE, expression);
+    }
+
+    /**
+     * Builds the cells for `expressions` from index `from`, back to front.
+     */
+    private static SList fromList(List<AbstractSyntaxTree> expressions, int from) {
+        if (from > expressions.size())
+            return null;
+
+        SList list = new SList(null, null, 0);
+        for (int i = expressions.size() - 1; i >= from; i--)
+            list = list.cons(expressions.get(i));
+        return list;
     }
 
     @Override
@@ -56,49 +104,138 @@ public class SList extends AbstractSyntaxTree implements Iterable<AbstractSyntax
         if (o == null || getClass() != o.getClass()) return false;
 
         SList that = (SList) o;
+        if (size != that.size) return false;
 
-        if (!expressions.equals(that.expressions)) return false;
+        for (SList a = this, b = that; !a.isEmpty(); a = a.tail, b = b.tail) {
+            if (a == b) return true;
+            if (!a.head.equals(b.head)) return false;
+        }
 
         return true;
     }
 
+    /**
+     * Same hash code as a `java.util.List` holding the same elements. It is
+     * kept once computed, and the elements are only hashed up to the first
+     * tail whose hash code is kept: hashing a list consed onto one already
+     * hashed only hashes the new elements.
+     */
     @Override
     public int hashCode() {
-        return expressions.hashCode();
+        int h = hash;
+        if (h != 0 || isEmpty())
+            return isEmpty() ? 1 : h;
+
+        int prefix = 1;
+        SList cell = this;
+        for (; !cell.isEmpty() && cell.hash == 0; cell = cell.tail)
+            prefix = 31 * prefix + cell.head.hashCode();
+        h = cell.isEmpty() ? prefix : power31(cell.size) * (prefix - 1) + cell.hash;
+        hash = h;
+        return h;
+    }
+
+    private static int power31(int exponent) {
+        int result = 1;
+        for (int base = 31; exponent > 0; exponent >>= 1, base *= base)
+            if ((exponent & 1) != 0)
+                result *= base;
+        return result;
     }
 
     @Override
     public String toString() {
-        if (expressions.size() == 0)
+        if (isEmpty())
             return "()";
 
-        String first = expressions.get(0).toString();
-        String exps = (first.equals("quote")
-                ? expressions.subList(1, expressions.size())
-                : expressions)
-                .stream()
-                .map(AbstractSyntaxTree::toString)
-                .collect(Collectors.joining(" "));
-        return first.equals("quote")
-            ? "'" + exps
-            : "(" + exps + ")";
-    }
+        boolean quoted = head == QUOTE;
+        StringBuilder sb = new StringBuilder(quoted ? "'" : "(");
+        for (SList cell = quoted ? tail : this; !cell.isEmpty(); cell = cell.tail) {
+            sb.append(cell.head);
+            if (!cell.tail.isEmpty())
+                sb.append(' ');
+        }
 
-    @Override
-    public AbstractSyntaxTree copy() {
-        List<AbstractSyntaxTree> copied = expressions
-                .stream()
-                .map(AbstractSyntaxTree::copy)
-                .collect(Collectors.toCollection(ArrayList::new));
-        return list(copied);
+        return quoted ? sb.toString() : sb.append(')').toString();
     }
 
     @Override
     public Iterator<AbstractSyntaxTree> iterator() {
-        return expressions.iterator();
+        return new Iterator<AbstractSyntaxTree>() {
+            private SList cell = SList.this;
+
+            @Override
+            public boolean hasNext() {
+                return !cell.isEmpty();
+            }
+
+            @Override
+            public AbstractSyntaxTree next() {
+                if (cell.isEmpty())
+                    throw new NoSuchElementException();
+                AbstractSyntaxTree exp = cell.head;
+                cell = cell.tail;
+                return exp;
+            }
+        };
     }
 
+    /**
+     * Element at `index`. Takes time proportional to `index`.
+     */
     public AbstractSyntaxTree get(int index) {
-        return expressions.get(index);
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+
+        SList cell = this;
+        for (int i = 0; i < index; i++)
+            cell = cell.tail;
+        return cell.head;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public AbstractSyntaxTree head() {
+        if (isEmpty())
+            throw new NoSuchElementException("head of empty list");
+        return head;
+    }
+
+    public SList tail() {
+        if (isEmpty())
+            throw new NoSuchElementException("tail of empty list");
+        return tail;
+    }
+
+    public SList cons(AbstractSyntaxTree head) {
+        return new SList(head, this, size + 1);
+    }
+
+    /**
+     * Read-only `List` view of this list, sharing its cells.
+     */
+    public List<AbstractSyntaxTree> asList() {
+        return new AbstractList<AbstractSyntaxTree>() {
+            @Override
+            public AbstractSyntaxTree get(int index) {
+                return SList.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Iterator<AbstractSyntaxTree> iterator() {
+                return SList.this.iterator();
+            }
+        };
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,128 @@
+package com.diy.lisp.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The compile-time shape of a chain of array frames: the names bound by each
+ * frame, innermost first. A null scope stands for a map frame, whose contents
+ * are only known at run time, so resolution stops there.
+ *
+ * The scope a flat closure keeps its captured values in has a `Captures`
+ * instead of fixed names: it is filled in with the variables of the scope
+ * around the `lambda` form that the body turns out to use.
+ */
+final class Scope {
+
+    Symbol[] names;
+    final Scope parent;
+    final Captures captures;
+
+    /**
+     * How many of `names` are bound at this point of the code. Only a `let`
+     * frame being filled has any that are not.
+     */
+    int bound;
+
+    Scope(Symbol[] names, Scope parent) {
+        this(names, parent, null);
+    }
+
+    private Scope(Symbol[] names, Scope parent, Captures captures) {
+        this.names = names;
+        this.parent = parent;
+        this.captures = captures;
+        this.bound = names.length;
+    }
+
+    /**
+     * The scope of the values captured by a closure made in `outer`. `self`
+     * is the slot of `outer` the closure is about to be bound to, if any.
+     */
+    static Scope captures(Scope outer, int self) {
+        return new Scope(new Symbol[0], null, new Captures(outer, self));
+    }
+
+    /**
+     * The scope matching the array frames at the front of `env`.
+     */
+    static Scope of(Environment env) {
+        if (env == null || env.names() == null)
+            return null;
+        return new Scope(env.names(), of(env.parent));
+    }
+
+    /**
+     * Makes every closure whose captured values are in `scope` keep its
+     * frames instead.
+     */
+    static void keepFrames(Scope scope) {
+        while (scope != null) {
+            if (scope.captures != null) {
+                scope.captures.keepFrames = true;
+                scope = scope.captures.outer;
+            } else {
+                scope = scope.parent;
+            }
+        }
+    }
+
+    /**
+     * Resolves `symbol` to the frame and slot it is bound in, or returns null
+     * if it is not bound in any array frame of this scope.
+     */
+    static Nodes.LocalReadNode resolve(Scope scope, Symbol symbol) {
+        for (int depth = 0; scope != null; scope = scope.parent, depth++) {
+            for (int slot = scope.names.length - 1; slot >= 0; slot--)
+                if (scope.names[slot] == symbol)
+                    return new Nodes.LocalReadNode(symbol, depth, slot);
+
+            if (scope.captures != null) {
+                int slot = scope.captures.capture(scope, symbol);
+                return slot < 0 ? null : new Nodes.LocalReadNode(symbol, depth, slot);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The variables of `outer` captured by a closure, and how to read them
+     * when the closure is made.
+     */
+    static final class Captures {
+        final Scope outer;
+        final int self;
+        final List<Nodes.LocalReadNode> reads = new ArrayList<>();
+
+        /**
+         * Set when the closure has to keep the frames it is made in: when
+         * it uses a `let` binding that is not made yet when the closure is,
+         * so its value cannot be copied, or looks variables up by name.
+         */
+        boolean keepFrames;
+
+        Captures(Scope outer, int self) {
+            this.outer = outer;
+            this.self = self;
+        }
+
+        private int capture(Scope scope, Symbol symbol) {
+            Nodes.LocalReadNode read = resolve(outer, symbol);
+            if (read == null)
+                return -1;
+
+            Scope target = outer;
+            for (int i = 0; i < read.depth; i++)
+                target = target.parent;
+            boolean isSelf = read.depth == 0 && read.slot == self;
+            if (target.captures == null && read.slot >= target.bound && !isSelf)
+                keepFrames = true;
+
+            reads.add(isSelf ? null : read);
+            scope.names = Arrays.copyOf(scope.names, scope.names.length + 1);
+            scope.names[scope.names.length - 1] = symbol;
+            return scope.names.length - 1;
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package com.diy.lisp.model;
+
+import com.diy.lisp.exception.LispException;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static com.diy.lisp.model.SpecialForms.isTrue;
+
+/**
+ * A lazy sequence: a list whose elements are only computed when they are
+ * asked for, made by `lazy-range`, `lazy-map` and `lazy-filter`, or by
+ * consing onto a sequence. `head`, `tail` and `empty` take sequences like
+ * lists, and so do the list functions.
+ *
+ * A sequence keeps its first element and its tail once computed, whether
+ * they are taken with `head` and `tail` or by walking it with the list
+ * functions, so nothing is computed twice. In turn, every cell computed so
+ * far stays alive as long as the sequence it started from is reachable,
+ * also while a function it was passed to, like `sum`, walks it. A sequence
+ * too long to keep in memory is best walked with `head` and `tail` from a
+ * value that is not kept, as a function recurring on the tail does. The
+ * functions of a sequence should be pure: two threads walking
+ * the same cell at once may both run them.
+ *
+ * The sources of `lazy-map` and `lazy-filter` can be lists, strings or other
+ * sequences.
+ */
+public abstract class Seq extends AbstractSyntaxTree implements Iterable<AbstractSyntaxTree> {
+
+    private Seq rest;    // or null until computed
+
+    public abstract boolean isEmpty();
+
+    /**
+     * The first element. The sequence must not be empty.
+     */
+    abstract AbstractSyntaxTree first();
+
+    /**
+     * Computes the rest of the sequence. The sequence must not be empty.
+     */
+    abstract Seq next();
+
+    /**
+     * The rest of the sequence, computed once. The sequence must not be
+     * empty.
+     */
+    final Seq rest() {
+        Seq rest = this.rest;
+        if (rest == null)
+            this.rest = rest = next();
+        return rest;
+    }
+
+    public AbstractSyntaxTree head() {
+        if (isEmpty())
+            throw new NoSuchElementException("head of empty sequence");
+        return first();
+    }
+
+    public Seq tail() {
+        if (isEmpty())
+            throw new NoSuchElementException("tail of empty sequence");
+        return rest();
+    }
+
+    @Override
+    public final AbstractSyntaxTree evaluate(Environment env) {
+        return this;
+    }
+
+    @Override
+    public Iterator<AbstractSyntaxTree> iterator() {
+        return new Iterator<AbstractSyntaxTree>() {
+            private Seq seq = Seq.this;
+
+            @Override
+            public boolean hasNext() {
+                return !seq.isEmpty();
+            }
+
+            @Override
+            public AbstractSyntaxTree next() {
+                if (seq.isEmpty())
+                    throw new NoSuchElementException();
+                AbstractSyntaxTree exp = seq.first();
+                seq = seq.rest();
+                return exp;
+            }
+        };
+    }
+
+    /**
+     * Prints like the list of its elements, which computes all of them.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        for (AbstractSyntaxTree exp : this) {
+            if (sb.length() > 1)
+                sb.append(' ');
+            sb.append(exp);
+        }
+        return sb.append(')').toString();
+    }
+
+    /**
+     * The numbers from `a` up to and including `b`, like `range`.
+     */
+    public static Seq range(Int a, Int b) {
+        return new Range(a, b);
+    }
+
+    public static Seq map(Procedure fn, AbstractSyntaxTree source) {
+        checkSource(source);
+        return new Mapped(fn, source);
+    }
+
+    public static Seq filter(Procedure pred, AbstractSyntaxTree source) {
+        checkSource(source);
+        return new Filtered(pred, source);
+    }
+
+    /**
+     * `head` followed by the elements of `tail`, which are computed when
+     * they are asked for.
+     */
+    public static Seq cons(AbstractSyntaxTree head, Seq tail) {
+        return new Consed(head, tail);
+    }
+
+    private static void checkSource(AbstractSyntaxTree source) {
+        if (!(source instanceof SList || source instanceof Str || source instanceof Seq))
+            throw new LispException(String.format("Cannot make a sequence of %s", source));
+    }
+
+    private static final class Range extends Seq {
+        private static final Int ONE = Int.number(1);
+
+        private final Int from;
+        private final Int to;
+
+        Range(Int from, Int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return from.greaterThan(to);
+        }
+
+        @Override
+        AbstractSyntaxTree first() {
+            return from;
+        }
+
+        @Override
+        Seq next() {
+            return new Range(from.add(ONE), to);
+        }
+    }
+
+    private static final class Consed extends Seq {
+        private final AbstractSyntaxTree head;
+        private final Seq tail;
+
+        Consed(AbstractSyntaxTree head, Seq tail) {
+            this.head = head;
+            this.tail = tail;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return false;
+        }
+
+        @Override
+        AbstractSyntaxTree first() {
+            return head;
+        }
+
+        @Override
+        Seq next() {
+            return tail;
+        }
+    }
+
+    private static final class Mapped extends Seq {
+        private final Procedure fn;
+        private final AbstractSyntaxTree source;
+        private AbstractSyntaxTree first;
+
+        Mapped(Procedure fn, AbstractSyntaxTree source) {
+            this.fn = fn;
+            this.source = source;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return isTrue(SpecialForms.empty(source));
+        }
+
+        @Override
+        AbstractSyntaxTree first() {
+            AbstractSyntaxTree value = first;
+            if (value == null)
+                first = value = fn.call1(SpecialForms.head(source));
+            return value;
+        }
+
+        @Override
+        Seq next() {
+            return new Mapped(fn, SpecialForms.tail(source));
+        }
+    }
+
+    /**
+     * Finds its first element, the first in the source `pred` is true for,
+     * when the sequence is first looked into.
+     */
+    private static final class Filtered extends Seq {
+        private final Procedure pred;
+        private final AbstractSyntaxTree source;
+        private AbstractSyntaxTree position;    // source from the first element on, or null
+
+        Filtered(Procedure pred, AbstractSyntaxTree source) {
+            this.pred = pred;
+            this.source = source;
+        }
+
+        private AbstractSyntaxTree position() {
+            AbstractSyntaxTree position = this.position;
+            if (position == null) {
+                position = source;
+                while (!isTrue(SpecialForms.empty(position)) && !isTrue(pred.call1(SpecialForms.head(position))))
+                    position = SpecialForms.tail(position);
+                this.position = position;
+            }
+            return position;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return isTrue(SpecialForms.empty(position()));
+        }
+
+        @Override
+        AbstractSyntaxTree first() {
+            return SpecialForms.head(position());
+        }
+
+        @Override
+        Seq next() {
+            return new Filtered(pred, SpecialForms.tail(position()));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.diy.lisp.model;
+
+import java.util.List;
+
+/**
+ * A form the evaluator handles itself, rather than calling a function. It
+ * receives its arguments unevaluated, and decides for itself which of them
+ * to evaluate.
+ *
+ * The forms of the language are registered in `SpecialForms`. New ones can
+ * be added with `register`, and are then recognized wherever a list head is,
+ * ahead of any variable of the same name. The compiler does not know them,
+ * so in function bodies they are evaluated as they are at top level. A form
+ * registered after a function body is compiled is not seen by that body, so
+ * forms are best registered before the code using them is evaluated.
+ */
+public interface SpecialForm {
+
+    /**
+     * Evaluates the form with the arguments `exps`, which do not include
+     * the name of the form, in `env`. `tail` is set
+     * when the form is in tail position of a function body; only the forms
+     * of the language make use of it.
+     */
+    AbstractSyntaxTree evaluate(List<AbstractSyntaxTree> exps, Environment env, boolean tail);
+
+    /**
+     * Makes `name` a special form, evaluated by `form`. The forms of the
+     * language cannot be replaced.
+     */
+    static void register(Symbol name, SpecialForm form) {
+        SpecialForms.register(name, form);
+    }
+
+    /**
+     * Makes `name` a plain symbol again, if it was registered as a special
+     * form. Code compiled while it was a form keeps evaluating it as one.
+     * The forms of the language cannot be removed.
+     */
+    static void unregister(Symbol name) {
+        SpecialForms.unregister(name);
+    }
+}
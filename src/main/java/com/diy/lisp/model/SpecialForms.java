@@ -0,0 +1,357 @@
+package com.diy.lisp.model;
+
+import com.diy.lisp.exception.LispException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import static com.diy.lisp.model.Bool.bool;
+import static com.diy.lisp.model.Closure.closure;
+import static com.diy.lisp.model.Symbol.symbol;
+
+/**
+ * The special forms built into the language.
+ *
+ * Each form receives its arguments unevaluated, and decides for itself which of
+ * them to evaluate. Forms are found by `Symbol.evaluate` in a table indexed by
+ * the id of the list head, which holds the forms below and any registered
+ * since; see `SpecialForm`.
+ *
+ * The forms that work on plain values also have a version taking the values
+ * already evaluated, which the compiled nodes in `Nodes` share.
+ */
+final class SpecialForms {
+
+    static final Symbol QUOTE = symbol("quote");
+    static final Symbol ATOM = symbol("atom");
+    static final Symbol EQ = symbol("eq");
+    static final Symbol PLUS = symbol("+");
+    static final Symbol MINUS = symbol("-");
+    static final Symbol TIMES = symbol("*");
+    static final Symbol DIVIDE = symbol("/");
+    static final Symbol MOD = symbol("mod");
+    static final Symbol GREATER = symbol(">");
+    static final Symbol IF = symbol("if");
+    static final Symbol DEFINE = symbol("define");
+    static final Symbol LAMBDA = symbol("lambda");
+    static final Symbol CONS = symbol("cons");
+    static final Symbol HEAD = symbol("head");
+    static final Symbol TAIL = symbol("tail");
+    static final Symbol EMPTY = symbol("empty");
+    static final Symbol COND = symbol("cond");
+    static final Symbol LET = symbol("let");
+    static final Symbol DEFN = symbol("defn");
+    static final Symbol DEFN_MEMO = symbol("defn-memo");
+    static final Symbol LAZY_RANGE = symbol("lazy-range");
+    static final Symbol LAZY_MAP = symbol("lazy-map");
+    static final Symbol LAZY_FILTER = symbol("lazy-filter");
+    static final Symbol SPAWN = symbol("spawn");
+
+    /**
+     * The form for each symbol id, or null. The table is replaced rather
+     * than changed when a form is registered.
+     */
+    private static volatile SpecialForm[] forms = new SpecialForm[0];
+
+    /**
+     * The forms of the language, which cannot be replaced: the table as it
+     * is once they are registered.
+     */
+    private static SpecialForm[] builtIn;
+
+    static {
+        register(QUOTE, (exps, env, tail) -> quote(exps));
+        register(ATOM, (exps, env, tail) -> atom(exps, env));
+        register(EQ, (exps, env, tail) -> eq(exps, env));
+        for (Symbol operator : new Symbol[]{PLUS, MINUS, TIMES, DIVIDE, MOD, GREATER})
+            register(operator, (exps, env, tail) -> arithmetic(operator, exps, env));
+        register(IF, SpecialForms::ifForm);
+        register(DEFINE, (exps, env, tail) -> define(exps, env));
+        register(LAMBDA, (exps, env, tail) -> lambda(exps, env));
+        register(CONS, (exps, env, tail) -> cons(exps, env));
+        register(HEAD, (exps, env, tail) -> head(exps, env));
+        register(TAIL, (exps, env, tail) -> tail(exps, env));
+        register(EMPTY, (exps, env, tail) -> empty(exps, env));
+        register(COND, SpecialForms::cond);
+        register(LET, SpecialForms::let);
+        register(DEFN, (exps, env, tail) -> defn(exps, env));
+        register(DEFN_MEMO, (exps, env, tail) -> defnMemo(exps, env));
+        for (Symbol form : new Symbol[]{LAZY_RANGE, LAZY_MAP, LAZY_FILTER})
+            register(form, (exps, env, tail) -> lazy(form, exps, env));
+        register(SPAWN, (exps, env, tail) -> spawn(exps, env));
+        builtIn = forms;
+    }
+
+    private SpecialForms() {
+    }
+
+    /**
+     * The special form named `symbol`, or null if it names none.
+     */
+    static SpecialForm form(Symbol symbol) {
+        SpecialForm[] table = forms;
+        int id = symbol.id();
+        return id < table.length ? table[id] : null;
+    }
+
+    static synchronized void register(Symbol symbol, SpecialForm form) {
+        if (builtIn != null && symbol.id() < builtIn.length && builtIn[symbol.id()] != null)
+            throw new LispException(String.format("%s is a special form of the language", symbol));
+
+        SpecialForm[] table = forms;
+        if (symbol.id() >= table.length)
+            table = Arrays.copyOf(table, Math.max(symbol.id() + 1, table.length * 2));
+        else
+            table = table.clone();
+        table[symbol.id()] = form;
+        forms = table;
+    }
+
+    static synchronized void unregister(Symbol symbol) {
+        if (builtIn != null && symbol.id() < builtIn.length && builtIn[symbol.id()] != null)
+            throw new LispException(String.format("%s is a special form of the language", symbol));
+
+        SpecialForm[] table = forms;
+        if (symbol.id() < table.length && table[symbol.id()] != null) {
+            table = table.clone();
+            table[symbol.id()] = null;
+            forms = table;
+        }
+    }
+
+    static AbstractSyntaxTree quote(List<AbstractSyntaxTree> exps) {
+        checkArguments(QUOTE, exps, 1);
+        return exps.get(0);
+    }
+
+    static AbstractSyntaxTree atom(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(ATOM, exps, 1);
+        return atom(exps.get(0).evaluate(env));
+    }
+
+    static AbstractSyntaxTree atom(AbstractSyntaxTree value) {
+        return bool(value instanceof Atom);
+    }
+
+    static AbstractSyntaxTree eq(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(EQ, exps, 2);
+        return eq(exps.get(0).evaluate(env), exps.get(1).evaluate(env));
+    }
+
+    static AbstractSyntaxTree eq(AbstractSyntaxTree a, AbstractSyntaxTree b) {
+        return bool(a instanceof Atom && a.equals(b));
+    }
+
+    static AbstractSyntaxTree arithmetic(Symbol operator, List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(operator, exps, 2);
+        Int a = number(operator, exps.get(0).evaluate(env));
+        return arithmetic(operator, a, exps.get(1).evaluate(env));
+    }
+
+    static AbstractSyntaxTree arithmetic(Symbol operator, AbstractSyntaxTree left, AbstractSyntaxTree right) {
+        Int a = number(operator, left);
+        Int b = number(operator, right);
+
+        if (operator == PLUS) return a.add(b);
+        if (operator == MINUS) return a.subtract(b);
+        if (operator == TIMES) return a.multiply(b);
+        if (operator == DIVIDE) return a.divide(b);
+        if (operator == MOD) return a.mod(b);
+        return bool(a.greaterThan(b));
+    }
+
+    static AbstractSyntaxTree ifForm(List<AbstractSyntaxTree> exps, Environment env, boolean tail) {
+        checkArguments(IF, exps, 3);
+        AbstractSyntaxTree branch = isTrue(exps.get(0).evaluate(env)) ? exps.get(1) : exps.get(2);
+        return tail ? branch.evaluateTail(env) : branch.evaluate(env);
+    }
+
+    static AbstractSyntaxTree define(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(DEFINE, exps, 2);
+        Symbol name = symbolArgument(DEFINE, exps.get(0));
+        env.set(name, exps.get(1).evaluate(env));
+        return name;
+    }
+
+    static AbstractSyntaxTree lambda(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(LAMBDA, exps, 2);
+        return closure(env, parameters(exps.get(0)), exps.get(1));
+    }
+
+    static AbstractSyntaxTree cons(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(CONS, exps, 2);
+        return cons(exps.get(0).evaluate(env), exps.get(1).evaluate(env));
+    }
+
+    static AbstractSyntaxTree cons(AbstractSyntaxTree head, AbstractSyntaxTree tail) {
+        if (tail instanceof SList)
+            return ((SList) tail).cons(head);
+        if (tail instanceof Str && head instanceof Str)
+            return ((Str) tail).cons((Str) head);
+        if (tail instanceof Seq)
+            return Seq.cons(head, (Seq) tail);
+
+        throw new LispException(String.format("Cannot cons %s onto %s", head, tail));
+    }
+
+    static AbstractSyntaxTree head(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(HEAD, exps, 1);
+        return head(exps.get(0).evaluate(env));
+    }
+
+    static AbstractSyntaxTree head(AbstractSyntaxTree value) {
+        if (value instanceof SList && !((SList) value).isEmpty())
+            return ((SList) value).head();
+        if (value instanceof Str && !((Str) value).isEmpty())
+            return ((Str) value).head();
+        if (value instanceof Seq && !((Seq) value).isEmpty())
+            return ((Seq) value).first();
+
+        throw new LispException(String.format("Cannot take head of %s", value));
+    }
+
+    static AbstractSyntaxTree tail(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(TAIL, exps, 1);
+        return tail(exps.get(0).evaluate(env));
+    }
+
+    static AbstractSyntaxTree tail(AbstractSyntaxTree value) {
+        if (value instanceof SList && !((SList) value).isEmpty())
+            return ((SList) value).tail();
+        if (value instanceof Str && !((Str) value).isEmpty())
+            return ((Str) value).tail();
+        if (value instanceof Seq && !((Seq) value).isEmpty())
+            return ((Seq) value).rest();
+
+        throw new LispException(String.format("Cannot take tail of %s", value));
+    }
+
+    static AbstractSyntaxTree empty(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(EMPTY, exps, 1);
+        return empty(exps.get(0).evaluate(env));
+    }
+
+    static AbstractSyntaxTree empty(AbstractSyntaxTree value) {
+        if (value instanceof SList)
+            return bool(((SList) value).isEmpty());
+        if (value instanceof Str)
+            return bool(((Str) value).isEmpty());
+        if (value instanceof Seq)
+            return bool(((Seq) value).isEmpty());
+
+        throw new LispException(String.format("Cannot check emptiness of %s", value));
+    }
+
+    static AbstractSyntaxTree cond(List<AbstractSyntaxTree> exps, Environment env, boolean tail) {
+        checkArguments(COND, exps, 1);
+        for (AbstractSyntaxTree clause : listArgument(COND, exps.get(0))) {
+            SList pair = pair(COND, clause);
+            if (isTrue(pair.get(0).evaluate(env)))
+                return tail ? pair.get(1).evaluateTail(env) : pair.get(1).evaluate(env);
+        }
+
+        return Bool.FALSE;
+    }
+
+    static AbstractSyntaxTree let(List<AbstractSyntaxTree> exps, Environment env, boolean tail) {
+        checkArguments(LET, exps, 2);
+        Environment inner = env.extend(new HashMap<>());
+        for (AbstractSyntaxTree binding : listArgument(LET, exps.get(0))) {
+            SList pair = pair(LET, binding);
+            inner.bind(symbolArgument(LET, pair.get(0)), pair.get(1).evaluate(inner));
+        }
+
+        return tail ? exps.get(1).evaluateTail(inner) : exps.get(1).evaluate(inner);
+    }
+
+    static AbstractSyntaxTree defn(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(DEFN, exps, 3);
+        Symbol name = symbolArgument(DEFN, exps.get(0));
+        env.set(name, closure(env, parameters(exps.get(1)), exps.get(2)));
+        return name;
+    }
+
+    /**
+     * Like `defn`, for a function that remembers its results; see `Memoized`.
+     */
+    static AbstractSyntaxTree defnMemo(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(DEFN_MEMO, exps, 3);
+        Symbol name = symbolArgument(DEFN_MEMO, exps.get(0));
+        env.set(name, new Memoized(closure(env, parameters(exps.get(1)), exps.get(2))));
+        return name;
+    }
+
+    static AbstractSyntaxTree lazy(Symbol form, List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(form, exps, 2);
+        return lazy(form, exps.get(0).evaluate(env), exps.get(1).evaluate(env));
+    }
+
+    /**
+     * `lazy-range`, `lazy-map` and `lazy-filter`, which make a `Seq`.
+     */
+    static AbstractSyntaxTree lazy(Symbol form, AbstractSyntaxTree a, AbstractSyntaxTree b) {
+        if (form == LAZY_RANGE && a instanceof Int && b instanceof Int)
+            return Seq.range((Int) a, (Int) b);
+        if (form == LAZY_MAP && a instanceof Procedure)
+            return Seq.map((Procedure) a, b);
+        if (form == LAZY_FILTER && a instanceof Procedure)
+            return Seq.filter((Procedure) a, b);
+
+        throw new LispException(String.format("Cannot %s %s and %s", form, a, b));
+    }
+
+    static AbstractSyntaxTree spawn(List<AbstractSyntaxTree> exps, Environment env) {
+        checkArguments(SPAWN, exps, 1);
+        return Task.spawn(exps.get(0)::evaluate, env);
+    }
+
+    static boolean isSpecialForm(Symbol symbol) {
+        return form(symbol) != null;
+    }
+
+    /**
+     * Everything but `#f` counts as true in conditionals.
+     */
+    static boolean isTrue(AbstractSyntaxTree value) {
+        return value != Bool.FALSE;
+    }
+
+    private static void checkArguments(Symbol form, List<AbstractSyntaxTree> exps, int expected) {
+        if (exps.size() != expected)
+            throw new LispException(String.format("Wrong number of arguments to %s: expected %d, got %d",
+                    form, expected, exps.size()));
+    }
+
+    static Int number(Symbol operator, AbstractSyntaxTree value) {
+        if (!(value instanceof Int))
+            throw new LispException(String.format("%s expects numbers, got %s", operator, value));
+        return (Int) value;
+    }
+
+    private static Symbol symbolArgument(Symbol form, AbstractSyntaxTree value) {
+        if (!(value instanceof Symbol))
+            throw new LispException(String.format("%s expects a symbol, got %s", form, value));
+        return (Symbol) value;
+    }
+
+    private static SList listArgument(Symbol form, AbstractSyntaxTree value) {
+        if (!(value instanceof SList))
+            throw new LispException(String.format("%s expects a list, got %s", form, value));
+        return (SList) value;
+    }
+
+    private static SList pair(Symbol form, AbstractSyntaxTree value) {
+        SList pair = listArgument(form, value);
+        if (pair.size() != 2)
+            throw new LispException(String.format("%s expects pairs, got %s", form, value));
+        return pair;
+    }
+
+    private static SList parameters(AbstractSyntaxTree value) {
+        SList params = listArgument(LAMBDA, value);
+        for (AbstractSyntaxTree param : params)
+            symbolArgument(LAMBDA, param);
+        return params;
+    }
+}
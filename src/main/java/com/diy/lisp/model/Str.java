@@ -1,14 +1,28 @@
 package com.diy.lisp.model;
 
-import com.diy.lisp.exception.NotImplementedException;
+/**
+ * Strings are views into shared character arrays, so taking the head or the
+ * tail of a string never copies its characters.
+ *
+ * A string is a slice of a `char[]`, optionally followed by another string.
+ * Consing a string onto another just links the head slice in front of the
+ * tail, which makes `head`, `tail` and `cons` constant time. The characters
+ * are only walked when the string is compared or printed.
+ */
+public final class Str extends Atom {
 
-public class Str extends Atom {
+    private static final Str EMPTY = new Str(new char[0], 0, 0, null);
 
-    private final String str;
+    private final char[] chars;
+    private final int offset;
+    private final int count;    // length of the slice in `chars`
+    private final Str rest;     // string following the slice, or null
+    private final int length;
+    private int hash;
 
     @Override
     public AbstractSyntaxTree evaluate(Environment env) {
-        throw new NotImplementedException("Not implemented yet. You'll do this part on your own");
+        return this;
     }
 
     /**
@@ -16,22 +30,60 @@ public class Str extends Atom {
      * to be changed by you. Feel free to use it as you wish, though!
      */
 
-    public Str(String str) {
-        this.str = str;
+    private Str(char[] chars, int offset, int count, Str rest) {
+        this.chars = chars;
+        this.offset = offset;
+        this.count = count;
+        this.rest = rest;
+        this.length = count + (rest == null ? 0 : rest.length);
     }
 
     public static Str str(String str) {
-        return new Str(str);
+        return str.isEmpty() ? EMPTY : new Str(str.toCharArray(), 0, str.length(), null);
     }
 
-    @Override
-    public AbstractSyntaxTree copy() {
-        return new Str(str + "");
+    public int length() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    public Str head() {
+        return new Str(chars, offset, 1, null);
+    }
+
+    public Str tail() {
+        if (count > 1)
+            return new Str(chars, offset + 1, count - 1, rest);
+        return rest == null ? EMPTY : rest;
+    }
+
+    /**
+     * The string `head` followed by this one. Only `head` is copied, and only
+     * if it is itself made of more than one slice.
+     */
+    public Str cons(Str head) {
+        if (head.isEmpty())
+            return this;
+        Str slice = head.rest == null ? head : str(head.value());
+        return new Str(slice.chars, slice.offset, slice.count, isEmpty() ? null : this);
+    }
+
+    /**
+     * The characters of this string as a Java string.
+     */
+    public String value() {
+        StringBuilder sb = new StringBuilder(length);
+        for (Str s = this; s != null; s = s.rest)
+            sb.append(s.chars, s.offset, s.count);
+        return sb.toString();
     }
 
     @Override
     public String toString() {
-        return String.format("\"%s\"", str);
+        return String.format("\"%s\"", value());
     }
 
     @Override
@@ -39,14 +91,33 @@ public class Str extends Atom {
         if (this == o) return true;
         if (!(o instanceof Str)) return false;
 
-        Str str1 = (Str) o;
+        Str that = (Str) o;
+        if (length != that.length) return false;
 
-        return str.equals(str1.str);
+        Str a = this, b = that;
+        int i = 0, j = 0;
+        for (int n = 0; n < length; n++) {
+            while (i == a.count) { a = a.rest; i = 0; }
+            while (j == b.count) { b = b.rest; j = 0; }
+            if (a.chars[a.offset + i++] != b.chars[b.offset + j++])
+                return false;
+        }
 
+        return true;
     }
 
+    /**
+     * Same hash code as the equivalent `java.lang.String`.
+     */
     @Override
     public int hashCode() {
-        return str.hashCode();
+        int h = hash;
+        if (h == 0 && length > 0) {
+            for (Str s = this; s != null; s = s.rest)
+                for (int i = 0; i < s.count; i++)
+                    h = 31 * h + s.chars[s.offset + i];
+            hash = h;
+        }
+        return h;
     }
 }
@@ -1,60 +1,91 @@
 package com.diy.lisp.model;
 
-import com.diy.lisp.exception.NotImplementedException;
-
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Symbols are interned: there is exactly one instance per name, so symbols
+ * can be compared by identity. Every symbol also gets a unique, dense id, and
+ * caches its hash code for the environment maps.
+ */
+public final class Symbol extends Atom {
 
-public class Symbol extends Atom {
+    private static final ConcurrentMap<String, Symbol> table = new ConcurrentHashMap<>();
+    private static final AtomicInteger ids = new AtomicInteger();
 
-    private String value;
+    private final String value;
+    private final int id;
+    private final int hash;
 
     @Override
     public AbstractSyntaxTree evaluate(Environment env) {
-        throw new NotImplementedException("Not implemented yet. You'll do this part on your own");
+        return env.lookup(this);
     }
 
+    /**
+     * A symbol at the head of a list is either a special form, or a variable
+     * holding the function to call.
+     */
     @Override
     public AbstractSyntaxTree evaluate(List<AbstractSyntaxTree> exps, Environment env) {
-        throw new NotImplementedException("Not implemented yet. You'll do this part on your own");
+        SpecialForm form = SpecialForms.form(this);
+        if (form != null)
+            return form.evaluate(exps, env, false);
+
+        return env.lookup(this).evaluate(exps, env);
     }
 
     /**
-     * The code below is there for your convenience, and should not need
-     * to be changed by you. Feel free to use it as you wish, though!
+     * The forms with a body in tail position pass that on to their body.
      */
+    @Override
+    AbstractSyntaxTree evaluateTail(List<AbstractSyntaxTree> exps, Environment env) {
+        SpecialForm form = SpecialForms.form(this);
+        if (form != null)
+            return form.evaluate(exps, env, true);
 
-    public Symbol(String value) {
+        return env.lookup(this).evaluateTail(exps, env);
+    }
+
+    private Symbol(String value, int id) {
         this.value = value;
+        this.id = id;
+        this.hash = value.hashCode();
     }
 
+    /**
+     * Returns the canonical symbol for `value`, creating it on first use.
+     * Safe to call from several threads at once.
+     */
     public static Symbol symbol(String value) {
-        return new Symbol(value);
+        Symbol symbol = table.get(value);
+        if (symbol != null)
+            return symbol;
+
+        return table.computeIfAbsent(value, v -> new Symbol(v, ids.getAndIncrement()));
+    }
+
+    /**
+     * Unique id of this symbol, counting from zero in order of creation.
+     */
+    public int id() {
+        return id;
     }
 
     @Override
     public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-
-        Symbol symbol = (Symbol) o;
-
-        if (!value.equals(symbol.value)) return false;
-
-        return true;
+        return this == o;
     }
 
     @Override
     public int hashCode() {
-        return value.hashCode();
+        return hash;
     }
 
     @Override
     public String toString() {
         return value;
     }
-
-    @Override
-    public AbstractSyntaxTree copy() {
-        return symbol(value);
-    }
 }
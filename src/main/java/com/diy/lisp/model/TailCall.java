@@ -0,0 +1,26 @@
+package com.diy.lisp.model;
+
+/**
+ * A call to `closure` left pending by a function body, to be made by the
+ * closure that was running the body once that has returned.
+ */
+final class TailCall extends AbstractSyntaxTree {
+
+    final Closure closure;
+    final AbstractSyntaxTree[] args;
+
+    TailCall(Closure closure, AbstractSyntaxTree[] args) {
+        this.closure = closure;
+        this.args = args;
+    }
+
+    @Override
+    public AbstractSyntaxTree evaluate(Environment env) {
+        return closure.call(args);
+    }
+
+    @Override
+    public String toString() {
+        return "[TailCall]";
+    }
+}
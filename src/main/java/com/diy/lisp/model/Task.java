@@ -0,0 +1,116 @@
+package com.diy.lisp.model;
+
+import com.diy.lisp.exception.LispException;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An expression being evaluated on a thread of its own, made by `spawn`.
+ * `await` waits for it to finish, and returns its value or throws its error.
+ *
+ * Tasks run on virtual threads where the JVM has them (Java 21 and up), so
+ * thousands of tasks waiting on I/O or on channels cost little. Otherwise
+ * they run on a pool of daemon threads, one for each task running at once.
+ *
+ * A task evaluates its expression in the environment it was spawned in,
+ * which it shares with the spawning code. Spawning switches the map frames
+ * of that environment to their concurrency-safe mode; see `Environment`.
+ */
+public final class Task extends AbstractSyntaxTree {
+
+    private static final ExecutorService EXECUTOR = executor();
+
+    private final Future<AbstractSyntaxTree> future;
+
+    private Task(Future<AbstractSyntaxTree> future) {
+        this.future = future;
+    }
+
+    /**
+     * Starts evaluating `expression` in `env`.
+     */
+    static Task spawn(Expression expression, Environment env) {
+        env.makeConcurrent();
+        return new Task(EXECUTOR.submit(() -> expression.evaluate(env)));
+    }
+
+    /**
+     * Whether tasks run on virtual threads.
+     */
+    public static boolean isVirtual() {
+        return !(EXECUTOR instanceof PlatformExecutor);
+    }
+
+    /**
+     * Waits for the task to finish, and returns its value. An error the
+     * task ended with is thrown again here.
+     */
+    public AbstractSyntaxTree await() {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new LispException("Interrupted while waiting for a task");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new LispException(String.valueOf(cause));
+        }
+    }
+
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    @Override
+    public AbstractSyntaxTree evaluate(Environment env) {
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "[Task]";
+    }
+
+    /**
+     * What a task evaluates: an expression of the tree-walking evaluator,
+     * or a node of a compiled function body.
+     */
+    interface Expression {
+        AbstractSyntaxTree evaluate(Environment env);
+    }
+
+    private static ExecutorService executor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // Before Java 21
+            return new PlatformExecutor();
+        }
+    }
+
+    /**
+     * Runs each task on a daemon thread, reusing threads that are idle.
+     */
+    private static final class PlatformExecutor extends ThreadPoolExecutor {
+        private static final AtomicInteger threads = new AtomicInteger();
+
+        PlatformExecutor() {
+            super(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "diy-lisp-task-" + threads.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
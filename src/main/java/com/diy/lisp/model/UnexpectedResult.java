@@ -0,0 +1,16 @@
+package com.diy.lisp.model;
+
+/**
+ * Thrown by `Node.executeLong` when the node's value turns out not to be a
+ * number that fits in a `long` after all, carrying the value so the caller
+ * can carry on with it.
+ */
+final class UnexpectedResult extends RuntimeException {
+
+    final AbstractSyntaxTree value;
+
+    UnexpectedResult(AbstractSyntaxTree value) {
+        super(null, null, false, false);
+        this.value = value;
+    }
+}
@@ -0,0 +1,137 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.LispException;
+import com.diy.lisp.model.Builtin;
+import com.diy.lisp.model.Closure;
+import com.diy.lisp.model.Environment;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.Interpreter.interpretFile;
+import static com.diy.lisp.TestHelpers.assertException;
+import static com.diy.lisp.model.Symbol.symbol;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestBuiltins {
+
+    private static final String[] NATIVE = {"reduce", "reverse", "length", "sum", "range", "append", "filter",
+            "map", "sort"};
+
+    private String path = System.getProperty("user.dir") + File.separator + "stdlib.diy";
+    private String lists = String.join(File.separator, System.getProperty("user.dir"), "src", "test", "resources",
+            "lists.diy");
+    private Environment env;
+
+    /**
+     * The list functions defined in Lisp, hiding the builtins, which gives
+     * the results to compare with.
+     */
+    private Environment lisp;
+
+    @Before
+    public void setUp() {
+        env = new Environment();
+        interpretFile(path, env);
+        lisp = new Environment();
+        interpretFile(path, lisp);
+        interpretFile(lists, lisp);
+    }
+
+    private void assertSame(String program) {
+        String expected;
+        try {
+            expected = interpret(program, lisp);
+        } catch (LispException e) {
+            assertException(LispException.class, () -> interpret(program, env));
+            return;
+        }
+        assertEquals(program, expected, interpret(program, env));
+    }
+
+    @Test
+    public void testStdlibIsNative() {
+        for (String name : NATIVE) {
+            assertTrue(name, env.lookup(symbol(name)) instanceof Builtin);
+            assertTrue(name, lisp.lookup(symbol(name)) instanceof Closure);
+        }
+        assertTrue(env.lookup(symbol("not")) instanceof Closure);
+    }
+
+    /**
+     * The builtins give the same results as the definitions they replace
+     */
+    @Test
+    public void testSameResults() {
+        interpret("(define double (lambda (x) (* x 2)))", env);
+        interpret("(define double (lambda (x) (* x 2)))", lisp);
+        String[] programs = {
+                "(length '())", "(length '(1 2 3))", "(length \"abc\")",
+                "(sum '())", "(sum (range 1 100))", "(sum '(9223372036854775807 1))",
+                "(range 1 10)", "(range 5 1)", "(range -3 3)", "(range 3 3)",
+                "(reverse '(1 2 3))", "(reverse '())", "(reverse \"abc\")",
+                "(append '(1 2) '(3 4))", "(append '() 5)", "(append '(1) '())", "(append \"ab\" \"cd\")",
+                "(map double '(1 2 3))", "(map (lambda (x) (eq x 2)) '(1 2 3))", "(map double '())",
+                "(map length '((1 2) () (3)))", "(map double \"\")", "(filter (lambda (c) (eq c \"b\")) \"abc\")",
+                "(filter (lambda (x) (> x 2)) '(1 2 3 4))", "(filter (lambda (x) x) '(#t #f 1))",
+                "(reduce (lambda (a x) (+ a x)) 0 '(1 2 3))", "(reduce 5 'acc '())", "(reduce append '() '((1) (2 3)))",
+                "(sort '(3 1 2 3 -5 100000000000000000000))", "(sort '())", "(sort '(x))", "(sort '(2 1 1))",
+        };
+        for (String program : programs)
+            assertSame(program);
+    }
+
+    /**
+     * Bad arguments give errors, as they did in Lisp
+     */
+    @Test
+    public void testErrors() {
+        String[] programs = {
+                "(length 5)", "(sum '(1 x))", "(range 'a 5)", "(append 1 '(2))", "(append '(1) 2)",
+                "(map 5 '(1 2))", "(filter (lambda (x y) x) '(1))", "(reduce 5 0 '(1))", "(sort '(2 x 1))",
+                "(length '(1) '(2))", "(map double)",
+        };
+        for (String program : programs)
+            assertSame(program);
+        assertException(LispException.class, () -> interpret("(sort 5)", env));
+        assertException(LispException.class, () -> interpret("(map head '((1 2) 3))", env));
+        assertException(LispException.class, () -> interpret("(map 'head '((1 2) (3 4)))", env));
+    }
+
+    /**
+     * The builtins are there without the standard library, and definitions
+     * of the same names hide them
+     */
+    @Test
+    public void testDefinitionsHideBuiltins() {
+        Environment other = new Environment();
+        assertEquals("3", interpret("(length '(1 2 3))", other));
+        interpret("(define count-all (lambda (lst) (length lst)))", other);
+        assertEquals("2", interpret("(count-all '(1 2))", other));
+
+        interpret("(define reduce (lambda (fn acc lst) acc))", other);
+        interpret("(define length (lambda (lst) (reduce (lambda (n x) (+ n 1)) 0 lst)))", other);
+        interpret("(define map (lambda (fn lst) lst))", other);
+        assertTrue(other.lookup(symbol("length")) instanceof Closure);
+        assertTrue(other.lookup(symbol("map")) instanceof Closure);
+        assertEquals("0", interpret("(length '(1 2 3))", other));
+        assertEquals("0", interpret("(count-all '(1 2))", other));
+        assertTrue(new Environment().lookup(symbol("length")) instanceof Builtin);
+        assertEquals("(1 2)", interpret("((lambda (map) (map 1 2)) range)", new Environment()));
+    }
+
+    /**
+     * Builtins can be called from compiled function bodies, and passed on
+     */
+    @Test
+    public void testCallingFromFunctions() {
+        interpret("(define total-length (lambda (lists) (sum (map length lists))))", env);
+        for (int i = 0; i < 10; i++)
+            assertEquals("6", interpret("(total-length '((1 2) (3) (4 5 6)))", env));
+        assertEquals("(1 2 3)", interpret("(sort (reverse (range 1 3)))", env));
+        assertEquals("[Builtin map]", interpret("map", env));
+    }
+}
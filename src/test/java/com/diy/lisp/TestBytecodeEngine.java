@@ -0,0 +1,36 @@
+package com.diy.lisp;
+
+import com.diy.lisp.model.Engine;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+import org.junit.runners.Suite.SuiteClasses;
+
+/**
+ * Runs the language tests again with function bodies on the bytecode engine,
+ * which has to give the same results as the node trees
+ */
+@RunWith(Suite.class)
+@SuiteClasses({
+        TestPart1.class, TestPart2.class, TestPart3.class, TestPart4.class,
+        TestPart5.class, TestPart6.class, TestPart7.class, TestPart8.class,
+        TestEnvironments.class, TestTailCalls.class, TestNodes.class, TestBuiltins.class,
+        TestProcedures.class, TestSpecialForms.class, TestMemoized.class, TestSequences.class,
+        TestParallel.class, TestConcurrency.class
+})
+public class TestBytecodeEngine {
+
+    private static Engine engine;
+
+    @BeforeClass
+    public static void setUp() {
+        engine = Interpreter.engine();
+        Interpreter.setEngine(Engine.BYTECODE);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        Interpreter.setEngine(engine);
+    }
+}
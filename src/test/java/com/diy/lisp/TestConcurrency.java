@@ -0,0 +1,193 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.LispException;
+import com.diy.lisp.model.Environment;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.Interpreter.interpretFile;
+import static com.diy.lisp.TestHelpers.assertException;
+import static com.diy.lisp.model.Int.number;
+import static com.diy.lisp.model.Symbol.symbol;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestConcurrency {
+
+    private Environment env;
+
+    @Before
+    public void setUp() {
+        env = new Environment();
+        interpretFile(System.getProperty("user.dir") + File.separator + "stdlib.diy", env);
+    }
+
+    @Test
+    public void testSpawnAndAwait() {
+        assertEquals("3", interpret("(await (spawn (+ 1 2)))", env));
+        assertEquals("[Task]", interpret("(spawn 1)", env));
+
+        interpret("(define tasks (map (lambda (x) (spawn (* x x))) (range 1 1000)))", env);
+        assertEquals("333833500", interpret("(sum (map (lambda (t) (await t)) tasks))", env));
+    }
+
+    /**
+     * Tasks spawned inside functions see the variables around them
+     */
+    @Test
+    public void testSpawnInsideFunctions() {
+        interpret("(define later (lambda (x) (spawn (+ x 1))))", env);
+        interpret("(define both (lambda (n) (let ((a (spawn (* n 2))) (b (later n))) (+ (await a) (await b)))))",
+                env);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("42", interpret("(await (later 41))", env));
+            assertEquals("31", interpret("(both 10)", env));
+        }
+    }
+
+    /**
+     * Bindings of a `let` evaluated after one spawns a task are still seen
+     * by its body, which the task made concurrent
+     */
+    @Test
+    public void testSpawnInsideLet() {
+        assertEquals("2", interpret("(let ((t (spawn 1)) (x 2)) x)", env));
+        assertEquals("3", interpret("(let ((t (spawn 1)) (x 2)) (+ (await t) x))", env));
+        assertEquals("5", interpret("(let ((x 2) (t (spawn (+ x 1))) (y (await t))) (+ x y))", env));
+        interpret("(define f (lambda (n) (let ((t (spawn n)) (d (define z (+ n 1)))) (+ (await t) z))))", env);
+        assertEquals("7", interpret("(f 3)", env));
+    }
+
+    /**
+     * A producer and a consumer take turns on a channel with room for two
+     */
+    @Test
+    public void testChannels() {
+        interpret("(define produce (lambda (c n) (if (eq n 0) (send c 'done) "
+                + "(let ((sent (send c n))) (produce c (- n 1))))))", env);
+        interpret("(define consume (lambda (c acc) (let ((v (recv c))) (if (eq v 'done) acc (consume c (+ acc v))))))",
+                env);
+        interpret("(define c (chan 2))", env);
+        interpret("(define producer (spawn (produce c 1000)))", env);
+        assertEquals("500500", interpret("(consume c 0)", env));
+        assertEquals("done", interpret("(await producer)", env));
+
+        interpret("(define r (chan 0))", env);
+        interpret("(define sender (spawn (send r 7)))", env);
+        assertEquals("7", interpret("(recv r)", env));
+        assertEquals("7", interpret("(await sender)", env));
+    }
+
+    /**
+     * `await`, `chan`, `send` and `recv` are functions, so they can be passed
+     * around, and their names bound to something else
+     */
+    @Test
+    public void testFunctionValues() {
+        interpret("(define tasks (map (lambda (x) (spawn (* x 2))) '(1 2 3)))", env);
+        assertEquals("(2 4 6)", interpret("(map await tasks)", env));
+
+        interpret("(define c (chan 1))", env);
+        assertEquals("5", interpret("((lambda (put c) (put c 5)) send c)", env));
+        assertEquals("5", interpret("((lambda (get) (get c)) recv)", env));
+        assertEquals("3", interpret("((lambda (send recv) (send (recv 1))) (lambda (x) (+ x 1)) (lambda (x) (+ x 1)))",
+                env));
+        assertEquals("[Builtin chan]", interpret("chan", env));
+    }
+
+    /**
+     * Spawning makes the environment safe to define variables in from
+     * several threads at once
+     */
+    @Test
+    public void testConcurrentEnvironment() throws InterruptedException {
+        assertFalse(env.isConcurrent());
+        interpret("(await (spawn 1))", env);
+        assertTrue(env.isConcurrent());
+
+        AtomicInteger defined = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int n = i;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 100; j++) {
+                    env.set(symbol("v" + n + "-" + j), number(j));
+                    try {
+                        env.set(symbol("shared" + j), number(n));
+                        defined.incrementAndGet();
+                    } catch (LispException e) {
+                        // Defined by another thread first
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(100, defined.get());
+        assertEquals(number(99), env.lookup(symbol("v7-99")));
+        assertEquals("#t", interpret("(eq v3-5 5)", env));
+    }
+
+    /**
+     * Tasks spawned from the workers of a parallel function, which make the
+     * frames they share concurrent while the other workers run
+     */
+    @Test
+    public void testSpawnInsidePmap() {
+        interpret("(define base 10)", env);
+        interpret("(define f (lambda (x) (let ((t (spawn (+ x base))) (d (define y (* x 2)))) (+ (await t) y))))",
+                env);
+        interpret("(define numbers (range 1 2000))", env);
+        String parallel = interpret("(pmap f numbers)", env);
+        assertTrue(env.isConcurrent());
+        assertEquals(interpret("(map f numbers)", env), parallel);
+        assertEquals("2001000", interpret("(sum (pmap (lambda (x) (await (spawn x))) numbers))", env));
+    }
+
+    /**
+     * Definitions made while another thread makes the environment
+     * concurrent are not lost
+     */
+    @Test
+    public void testDefinitionsDuringSwitch() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            int n = i;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < 2000; j++)
+                    env.set(symbol("w" + n + "-" + j), number(j));
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        env.makeConcurrent();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertTrue(env.isConcurrent());
+        for (int i = 0; i < 8; i++)
+            for (int j = 0; j < 2000; j++)
+                assertEquals(number(j), env.lookup(symbol("w" + i + "-" + j)));
+    }
+
+    @Test
+    public void testErrors() {
+        assertException(LispException.class, () -> interpret("(await (spawn (/ 1 0)))", env));
+        assertException(LispException.class, () -> interpret("(await 1)", env));
+        assertException(LispException.class, () -> interpret("(chan -1)", env));
+        assertException(LispException.class, () -> interpret("(chan '())", env));
+        assertException(LispException.class, () -> interpret("(send 1 2)", env));
+        assertException(LispException.class, () -> interpret("(recv (spawn 1))", env));
+        assertException(LispException.class, () -> interpret("(spawn)", env));
+    }
+}
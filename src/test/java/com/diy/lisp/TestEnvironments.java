@@ -0,0 +1,93 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.LispException;
+import com.diy.lisp.model.Closure;
+import com.diy.lisp.model.Environment;
+import org.junit.Test;
+
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.TestHelpers.assertException;
+import static com.diy.lisp.model.Int.number;
+import static com.diy.lisp.model.Symbol.symbol;
+import static junit.framework.TestCase.assertEquals;
+
+public class TestEnvironments {
+
+    /**
+     * Inner functions read variables from every enclosing frame
+     */
+    @Test
+    public void testNestedFrames() {
+        Environment env = new Environment();
+        interpret("(define adder (lambda (a) (lambda (b) (lambda (c) (+ a (+ b c))))))", env);
+        assertEquals("6", interpret("(((adder 1) 2) 3)", env));
+        assertEquals("10", interpret("(((adder 3) 3) 4)", env));
+    }
+
+    /**
+     * Inner bindings shadow outer ones, and later let bindings see earlier ones
+     */
+    @Test
+    public void testShadowing() {
+        Environment env = new Environment();
+        assertEquals("3", interpret("((lambda (x) (let ((x (+ x 1)) (x (+ x 1))) x)) 1)", env));
+        assertEquals("1", interpret("((lambda (x) ((lambda (x) x) 1)) 2)", env));
+    }
+
+    /**
+     * A let binding can refer to itself through a function, as before
+     */
+    @Test
+    public void testRecursiveLet() {
+        Environment env = new Environment();
+        assertEquals("120", interpret(
+                "(let ((fact (lambda (n) (if (eq n 0) 1 (* n (fact (- n 1))))))) (fact 5))", env));
+    }
+
+    /**
+     * Let bindings can refer to later ones through functions, which see
+     * them once they are made
+     */
+    @Test
+    public void testLaterLetBindings() {
+        Environment env = new Environment();
+        interpret("(define f (lambda (n) (let ((even (lambda (n) (if (eq n 0) #t (odd (- n 1)))))"
+                + " (odd (lambda (n) (if (eq n 0) #f (even (- n 1)))))) (even n))))", env);
+        assertEquals("#t", interpret("(f 10)", env));
+        assertEquals("#f", interpret("(f 7)", env));
+        assertException(LispException.class,
+                () -> interpret("((lambda () (let ((g (lambda () h)) (x (g)) (h 1)) x)))", env));
+        interpret("(define h 2)", env);
+        assertEquals("2", interpret("((lambda () (let ((g (lambda () h)) (x (g)) (h 1)) x)))", env));
+        assertEquals("1", interpret("((lambda () (let ((g (lambda () h)) (h 1) (x (g))) x)))", env));
+    }
+
+    /**
+     * Inner functions only keep the variables they use
+     */
+    @Test
+    public void testClosuresKeepOnlyTheirVariables() {
+        Environment env = new Environment();
+        interpret("(define keep (lambda (big n) (let ((k (+ n 1))) (lambda (x) (+ x k)))))", env);
+        interpret("(define c (keep '(1 2 3) 5))", env);
+        assertEquals("10", interpret("(c 4)", env));
+
+        Closure c = (Closure) env.lookup(symbol("c"));
+        assertEquals(number(6), c.env.lookup(symbol("k")));
+        assertException(LispException.class, () -> c.env.lookup(symbol("big")));
+        assertException(LispException.class, () -> c.env.lookup(symbol("n")));
+    }
+
+    /**
+     * Functions that define variables in their own frame still work, and
+     * the definitions stay local to the call
+     */
+    @Test
+    public void testDefineInFunction() {
+        Environment env = new Environment();
+        interpret("(define f (lambda (x) (let ((y 1)) (if (define z (+ x y)) z z))))", env);
+        assertEquals("3", interpret("(f 2)", env));
+        assertEquals("4", interpret("(f 3)", env));
+        assertException(LispException.class, () -> interpret("z", env));
+    }
+}
@@ -0,0 +1,146 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.LispException;
+import com.diy.lisp.model.Environment;
+import com.diy.lisp.model.Jit;
+import com.diy.lisp.model.Optimizer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.TestHelpers.assertException;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestJit {
+
+    private int threshold;
+    private boolean optimizing;
+    private Environment env;
+
+    /**
+     * The optimizer is turned off, as it would do some of the calls made
+     * here before they reach compiled code
+     */
+    @Before
+    public void setUp() {
+        threshold = Jit.threshold();
+        optimizing = Optimizer.isEnabled();
+        Jit.setThreshold(3);
+        Optimizer.setEnabled(false);
+        env = new Environment();
+    }
+
+    @After
+    public void tearDown() {
+        Jit.setThreshold(threshold);
+        Optimizer.setEnabled(optimizing);
+    }
+
+    /**
+     * Functions called often enough are compiled, and give the same results
+     */
+    @Test
+    public void testCompiledFunctions() {
+        int compilations = Jit.compilations();
+        int failures = Jit.failures();
+        interpret("(define fib (lambda (n) (if (> 2 n) n (+ (fib (- n 1)) (fib (- n 2))))))", env);
+        assertEquals("6765", interpret("(fib 20)", env));
+        assertTrue(Jit.compilations() > compilations);
+        assertEquals(failures, Jit.failures());
+    }
+
+    /**
+     * Compiled code handles every kind of expression
+     */
+    @Test
+    public void testCompiledForms() {
+        int failures = Jit.failures();
+        interpret("(define f (lambda (x) " +
+                "(let ((a (cons x '())) (b (lambda (y) (+ y x)))) " +
+                "(cond (((eq x 0) (atom a)) ((empty a) 'never) (#t (b (head a))))))))", env);
+        for (int i = 1; i < 10; i++)
+            assertEquals(String.valueOf(2 * i), interpret("(f " + i + ")", env));
+        assertEquals("#f", interpret("(f 0)", env));
+        assertEquals(failures, Jit.failures());
+    }
+
+    /**
+     * Nested arithmetic in compiled code gives the same results and errors
+     */
+    @Test
+    public void testCompiledNestedArithmetic() {
+        int failures = Jit.failures();
+        interpret("(define f (lambda (x y) (> (+ (* x 2) (- y (/ 10 x))) (mod y x))))", env);
+        interpret("(define g (lambda (x y) (+ (* x (+ y 1)) (- y (* x 2)))))", env);
+        for (int i = 1; i < 10; i++) {
+            assertEquals(String.valueOf(i * i), interpret("(g " + i + " " + i + ")", env));
+            assertEquals(2 * i + (i + 1 - 10 / i) > (i + 1) % i ? "#t" : "#f", interpret("(f " + i + " " + (i + 1) + ")", env));
+        }
+        assertException(LispException.class, () -> interpret("(g 'a 1)", env));
+        assertException(LispException.class, () -> interpret("(g 1 'b)", env));
+        assertException(LispException.class, () -> interpret("(f 0 1)", env));
+        assertEquals("1000000", interpret("(g 1000 1000)", env));
+        assertEquals(failures, Jit.failures());
+    }
+
+    /**
+     * Compiled code still reports errors, and runs tail calls in constant stack
+     */
+    @Test
+    public void testCompiledFallbacks() {
+        interpret("(define apply (lambda (f x) (f x)))", env);
+        interpret("(define add (lambda (a b) (+ a b)))", env);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("2", interpret("(apply (lambda (x) (+ x 1)) 1)", env));
+            assertEquals("3", interpret("(add 1 2)", env));
+        }
+        assertException(LispException.class, () -> interpret("(apply 5 1)", env));
+        assertException(LispException.class, () -> interpret("(add 1 'x)", env));
+
+        interpret("(define count (lambda (n) (if (eq n 0) 'done (count (- n 1)))))", env);
+        assertEquals("done", interpret("(count 1000000)", env));
+    }
+
+    /**
+     * Defining a variable that hides a builtin sends compiled code that used
+     * the builtin back to the node tree. Other definitions leave it alone, as
+     * the variables it has bound cannot change.
+     */
+    @Test
+    public void testDeoptimization() {
+        interpret("(define double (lambda (x) (* x 2)))", env);
+        interpret("(define f (lambda (x) (double (length x))))", env);
+        for (int i = 0; i < 5; i++)
+            assertEquals("4", interpret("(f '(1 2))", env));
+
+        int deoptimizations = Jit.deoptimizations();
+        interpret("(define g 1)", env);
+        assertEquals("6", interpret("(f '(1 2 3))", env));
+        assertEquals(deoptimizations, Jit.deoptimizations());
+
+        interpret("(define length (lambda (x) 5))", env);
+        assertEquals("10", interpret("(f '(1 2 3))", env));
+        assertEquals(deoptimizations + 1, Jit.deoptimizations());
+        for (int i = 0; i < 5; i++)
+            assertEquals("10", interpret("(f '())", env));
+    }
+
+    /**
+     * Bodies needing more than 255 locals of the JVM are compiled too
+     */
+    @Test
+    public void testManyLocals() {
+        int compilations = Jit.compilations();
+        int failures = Jit.failures();
+        StringBuilder body = new StringBuilder("(+ a199 1)");
+        for (int i = 199; i >= 0; i--)
+            body.insert(0, "(let ((a" + i + " " + (i == 0 ? "x" : "a" + (i - 1)) + ")) ").append(')');
+        interpret("(define f (lambda (x) " + body + "))", env);
+        for (int i = 0; i < 5; i++)
+            assertEquals(String.valueOf(i + 1), interpret("(f " + i + ")", env));
+        assertEquals(compilations + 1, Jit.compilations());
+        assertEquals(failures, Jit.failures());
+    }
+}
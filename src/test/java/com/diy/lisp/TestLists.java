@@ -0,0 +1,70 @@
+package com.diy.lisp;
+
+import com.diy.lisp.model.SList;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static com.diy.lisp.Parser.parse;
+import static com.diy.lisp.model.Int.number;
+import static com.diy.lisp.model.SList.list;
+import static com.diy.lisp.model.Symbol.symbol;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+
+public class TestLists {
+
+    /**
+     * Consing onto a list shares the list instead of copying it
+     */
+    @Test
+    public void testConsSharesTail() {
+        SList tail = list(number(2), number(3));
+        SList consed = tail.cons(number(1));
+        assertSame(tail, consed.tail());
+        assertEquals(number(1), consed.head());
+        assertEquals(3, consed.size());
+        assertEquals(list(number(1), number(2), number(3)), consed);
+    }
+
+    /**
+     * Lists built from cells print, compare and hash like before
+     */
+    @Test
+    public void testEqualityAndPrinting() {
+        SList consed = list().cons(symbol("b")).cons(symbol("a"));
+        assertEquals(parse("(a b)"), consed);
+        assertEquals(Arrays.asList(symbol("a"), symbol("b")).hashCode(), consed.hashCode());
+        assertEquals("(a b)", consed.toString());
+        assertEquals("'(a b)", SList.quote(consed).toString());
+        assertEquals("()", list().toString());
+    }
+
+    /**
+     * Elements can still be accessed by index
+     */
+    @Test
+    public void testGet() {
+        SList list = list(number(1), number(2), number(3));
+        assertEquals(number(3), list.get(2));
+        assertEquals(Arrays.asList(number(2), number(3)), list.tail().asList());
+    }
+
+    /**
+     * Hash codes are kept, and lists consed onto hashed lists hash the same
+     * as lists built at once
+     */
+    @Test
+    public void testHashCodeOfConsedLists() {
+        SList tail = list(number(3), list(number(4)), symbol("x"));
+        int tailHash = tail.hashCode();
+        assertEquals(Arrays.asList(number(3), list(number(4)), symbol("x")).hashCode(), tailHash);
+
+        SList consed = tail.cons(number(2)).cons(number(1));
+        assertEquals(list(number(1), number(2), number(3), list(number(4)), symbol("x")).hashCode(),
+                consed.hashCode());
+        assertEquals(consed.hashCode(), consed.hashCode());
+        assertEquals(Arrays.asList(number(1)).hashCode(), list().cons(number(1)).hashCode());
+        assertEquals(1, list().hashCode());
+    }
+}
@@ -0,0 +1,130 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.LispException;
+import com.diy.lisp.model.Environment;
+import com.diy.lisp.model.Memoized;
+import com.diy.lisp.model.Procedure;
+import org.junit.Test;
+
+import java.util.stream.IntStream;
+
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.TestHelpers.assertException;
+import static com.diy.lisp.model.Int.number;
+import static com.diy.lisp.model.Symbol.symbol;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestMemoized {
+
+    private Memoized memoized(String name, Environment env) {
+        return (Memoized) env.lookup(symbol(name));
+    }
+
+    /**
+     * A function defined with `defn-memo` computes the result for each
+     * argument once, also when it calls itself
+     */
+    @Test
+    public void testRecursiveFunction() {
+        Environment env = new Environment();
+        interpret("(defn-memo fib (n) (if (> 2 n) n (+ (fib (- n 1)) (fib (- n 2)))))", env);
+
+        assertEquals("1548008755920", interpret("(fib 60)", env));
+        Memoized fib = memoized("fib", env);
+        assertEquals(61, fib.misses());
+        assertEquals(58, fib.hits());
+        assertEquals(61, fib.size());
+
+        assertEquals("55", interpret("(fib 10)", env));
+        assertEquals(59, fib.hits());
+    }
+
+    /**
+     * Arguments are compared by value, not by identity
+     */
+    @Test
+    public void testArgumentsComparedByValue() {
+        Environment env = new Environment();
+        interpret("(define f (memoize (lambda (lst n) (+ (head lst) n))))", env);
+
+        assertEquals("4", interpret("(f '(1 2) 3)", env));
+        assertEquals("4", interpret("(f '(1 2) 3)", env));
+        assertEquals("4", interpret("(f (cons 1 '(2)) 3)", env));
+        assertEquals("5", interpret("(f '(1 2) 4)", env));
+        assertEquals("2", interpret("(f '(1) 1)", env));
+
+        Memoized f = memoized("f", env);
+        assertEquals(2, f.hits());
+        assertEquals(3, f.misses());
+    }
+
+    /**
+     * When full, the result used least recently is dropped
+     */
+    @Test
+    public void testLeastRecentlyUsedDropped() {
+        Environment env = new Environment();
+        interpret("(define double (lambda (n) (* n 2)))", env);
+        Memoized double2 = new Memoized((Procedure) env.lookup(symbol("double")), 2);
+
+        double2.call1(number(1));
+        double2.call1(number(2));
+        double2.call1(number(1));
+        assertEquals(number(6), double2.call1(number(3)));
+        assertEquals(2, double2.size());
+
+        double2.call1(number(1));
+        assertEquals(2, double2.hits());
+        double2.call1(number(2));
+        assertEquals(4, double2.misses());
+
+        double2.clear();
+        assertEquals(0, double2.size());
+        assertEquals(0, double2.hits());
+    }
+
+    /**
+     * Memoized functions can be made and called inside functions, and from
+     * several threads at once
+     */
+    @Test
+    public void testMemoizeInsideFunctions() {
+        Environment env = new Environment();
+        interpret("(define square (lambda (n) (* n n)))", env);
+        interpret("(define memo (lambda (f) (let ((g (memoize f))) (lambda (n) (+ (g n) (g n))))))", env);
+        interpret("(define twice (memo square))", env);
+
+        for (int i = 0; i < 5; i++)
+            assertEquals("18", interpret("(twice 3)", env));
+
+        Procedure twice = (Procedure) env.lookup(symbol("twice"));
+        assertTrue(IntStream.range(0, 1000).parallel()
+                .allMatch(i -> twice.call1(number(i % 10)).equals(number(2 * (i % 10) * (i % 10)))));
+    }
+
+    /**
+     * `memoize` is a function, so it can be passed around and shadowed
+     */
+    @Test
+    public void testMemoizeIsAFunction() {
+        Environment env = new Environment();
+        interpret("(define fs (map memoize (cons (lambda (n) (+ n 1)) (cons (lambda (n) (* n 2)) (quote ())))))", env);
+        assertEquals("(4 6)", interpret("(map (lambda (f) (f 3)) fs)", env));
+        assertEquals("[Memoized [Closure]]", interpret("(head fs)", env));
+
+        interpret("(define apply-to (lambda (m f x) ((m f) x)))", env);
+        assertEquals("9", interpret("(apply-to memoize (lambda (n) (* n n)) 3)", env));
+        assertEquals("3", interpret("((lambda (memoize) (memoize 2)) (lambda (n) (+ n 1)))", env));
+        assertEquals("[Builtin memoize]", interpret("memoize", env));
+    }
+
+    @Test
+    public void testErrors() {
+        Environment env = new Environment();
+        assertException(LispException.class, () -> interpret("(memoize 1)", env));
+        interpret("(defn-memo add (a b) (+ a b))", env);
+        assertException(LispException.class, () -> interpret("(add 1)", env));
+        assertEquals("[Memoized [Closure]]", interpret("add", env));
+    }
+}
@@ -0,0 +1,186 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.LispException;
+import com.diy.lisp.model.AbstractSyntaxTree;
+import com.diy.lisp.model.Environment;
+import com.diy.lisp.model.Optimizer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.Parser.parse;
+import static com.diy.lisp.TestHelpers.assertException;
+import static com.diy.lisp.model.Int.number;
+import static junit.framework.TestCase.assertEquals;
+
+public class TestNodes {
+
+    private boolean optimizing;
+
+    /**
+     * The optimizer is turned off, as it would do some of the calls made
+     * here before they reach the node trees
+     */
+    @Before
+    public void setUp() {
+        optimizing = Optimizer.isEnabled();
+        Optimizer.setEnabled(false);
+    }
+
+    @After
+    public void tearDown() {
+        Optimizer.setEnabled(optimizing);
+    }
+
+    /**
+     * Arithmetic specialized for numbers still reports other operands
+     */
+    @Test
+    public void testArithmeticOnOtherTypes() {
+        Environment env = new Environment();
+        interpret("(define add (lambda (a b) (+ a b)))", env);
+        assertEquals("3", interpret("(add 1 2)", env));
+        assertException(LispException.class, () -> interpret("(add 1 'x)", env));
+        assertEquals("7", interpret("(add 3 4)", env));
+    }
+
+    /**
+     * Nested arithmetic computed without boxing still reports operands that
+     * are not numbers, wherever they are
+     */
+    @Test
+    public void testNestedArithmetic() {
+        Environment env = new Environment();
+        interpret("(define f (lambda (x y) (> (+ (* x 2) (- y 1)) (mod y x))))", env);
+        interpret("(define g (lambda (x y) (+ (* x 2) (- y 1))))", env);
+        assertEquals("#t", interpret("(f 3 4)", env));
+        assertEquals("9", interpret("(g 3 4)", env));
+        assertException(LispException.class, () -> interpret("(g 'a 4)", env));
+        assertException(LispException.class, () -> interpret("(g 3 'b)", env));
+        assertException(LispException.class, () -> interpret("(f 0 4)", env));
+        assertEquals("15", interpret("(g 5 6)", env));
+        assertEquals("#f", interpret("(f 100 -300)", env));
+    }
+
+    /**
+     * A call that has only seen closures still reports other values
+     */
+    @Test
+    public void testCallingOtherValues() {
+        Environment env = new Environment();
+        interpret("(define apply (lambda (f x) (f x)))", env);
+        assertEquals("2", interpret("(apply (lambda (x) (+ x 1)) 1)", env));
+        assertException(LispException.class, () -> interpret("(apply 5 1)", env));
+        assertEquals("0", interpret("(apply (lambda (x) (- x 1)) 1)", env));
+    }
+
+    /**
+     * Cached global variables see definitions made after the function was
+     * first called, here and in the environments further out
+     */
+    @Test
+    public void testCachedGlobals() {
+        Environment env = new Environment();
+        interpret("(define f (lambda (x) (g x)))", env);
+        assertException(LispException.class, () -> interpret("(f 1)", env));
+        interpret("(define g (lambda (x) (+ x 1)))", env);
+        for (int i = 0; i < 3; i++)
+            assertEquals("2", interpret("(f 1)", env));
+
+        interpret("(define y 1)", env);
+        Environment inner = env.extend(new HashMap<>());
+        interpret("(define h (lambda () y))", inner);
+        assertEquals("1", interpret("(h)", inner));
+        interpret("(define y 2)", inner);
+        assertEquals("2", interpret("(h)", inner));
+    }
+
+    /**
+     * Functions that define variables get a fresh frame on each call, which
+     * globals are looked up from every time; builtins read from compiled
+     * bodies see the definitions hiding them
+     */
+    @Test
+    public void testGlobalsFromCallFrames() {
+        Environment env = new Environment();
+        interpret("(define offset 10)", env);
+        interpret("(define f (lambda (x) (let ((d (define y x))) (+ offset (+ y (length '(1)))))))", env);
+        for (int i = 0; i < 20; i++)
+            assertEquals(String.valueOf(11 + i), interpret("(f " + i + ")", env));
+
+        interpret("(define g (lambda (lst) (length lst)))", env);
+        for (int i = 0; i < 3; i++)
+            assertEquals("2", interpret("(g '(1 2))", env));
+        interpret("(define length (lambda (lst) 'hidden))", env);
+        assertEquals("hidden", interpret("(g '(1 2))", env));
+    }
+
+    /**
+     * The same function body can read globals of different environments
+     */
+    @Test
+    public void testGlobalsOfSeveralEnvironments() {
+        AbstractSyntaxTree program = parse("((lambda (x) (f x)) 5)");
+        for (int i = 0; i < 10; i++) {
+            Environment env = new Environment();
+            interpret("(define f (lambda (x) (* x " + i + ")))", env);
+            for (int j = 0; j < 3; j++)
+                assertEquals(number(5 * i), Evaluator.evaluate(program, env));
+        }
+    }
+
+    /**
+     * Malformed forms in a function body only fail when they are evaluated
+     */
+    @Test
+    public void testMalformedFormsFailWhenEvaluated() {
+        Environment env = new Environment();
+        interpret("(define f (lambda (x) (if x (if 1 2) 3)))", env);
+        assertEquals("3", interpret("(f #f)", env));
+        assertException(LispException.class, () -> interpret("(f #t)", env));
+    }
+
+    /**
+     * Threads running a fresh function body at the same time, with values
+     * that specialize its nodes in different ways, all get the right results
+     */
+    @Test
+    public void testConcurrentSpecialization() throws Exception {
+        Environment env = new Environment();
+        interpret("(define inc (lambda (y) (+ y 1)))", env);
+        interpret("(define same (lambda (y) y))", env);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (int round = 0; round < 200; round++) {
+                String f = "f" + round;
+                interpret("(define " + f + " (lambda (g x) (+ (g x) (* (+ x 0) (- 3 1)))))", env);
+                CountDownLatch start = new CountDownLatch(1);
+                List<Future<String>> results = new ArrayList<>();
+                for (int i = 0; i < threads; i++) {
+                    String call = i % 2 == 0 ? "(" + f + " inc 5)" : "(" + f + " same 4611686018427387904)";
+                    results.add(pool.submit(() -> {
+                        start.await();
+                        return interpret(call, env);
+                    }));
+                }
+                start.countDown();
+                for (int i = 0; i < threads; i++)
+                    assertEquals(i % 2 == 0 ? "16" : "13835058055282163712", results.get(i).get());
+                assertEquals("16", interpret("(" + f + " inc 5)", env));
+                assertEquals("13835058055282163712", interpret("(" + f + " same 4611686018427387904)", env));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.LispException;
+import com.diy.lisp.model.Environment;
+import com.diy.lisp.model.Int;
+import com.diy.lisp.model.Jit;
+import com.diy.lisp.model.Optimizer;
+import org.junit.Test;
+
+import java.math.BigInteger;
+
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.Parser.parse;
+import static com.diy.lisp.TestHelpers.assertException;
+import static com.diy.lisp.model.Int.number;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestNumbers {
+
+    /**
+     * Numbers of any size can be written, and read the same as when computed
+     */
+    @Test
+    public void testParsingLargeNumbers() {
+        assertEquals(number(3000000000L), parse("3000000000"));
+        assertEquals(number(new BigInteger("123456789012345678901234567890")),
+                parse("123456789012345678901234567890"));
+        assertEquals(number(Long.MIN_VALUE), parse("-9223372036854775808"));
+        assertEquals(number(-42), parse("-000000000000000000000042"));
+        assertEquals(number(new BigInteger("9223372036854775808")), number(Long.MAX_VALUE).add(number(1)));
+    }
+
+    @Test
+    public void testIsNumber() {
+        assertTrue(Int.isNumber("0"));
+        assertTrue(Int.isNumber("-17"));
+        assertFalse(Int.isNumber("-"));
+        assertFalse(Int.isNumber(""));
+        assertFalse(Int.isNumber("1a"));
+        assertFalse(Int.isNumber("+1"));
+        assertFalse(Int.isNumber("1-"));
+    }
+
+    /**
+     * Arithmetic moves to larger numbers as needed, and back when results are
+     * small again
+     */
+    @Test
+    public void testOverflow() {
+        Environment env = new Environment();
+        assertEquals("4294967296", interpret("(* 65536 65536)", env));
+        assertEquals("9223372036854775808", interpret("(+ 9223372036854775807 1)", env));
+        assertEquals("-9223372036854775809", interpret("(- -9223372036854775808 1)", env));
+        assertEquals("9223372036854775808", interpret("(/ -9223372036854775808 -1)", env));
+        assertEquals("85070591730234615847396907784232501249", interpret("(* 9223372036854775807 9223372036854775807)", env));
+        assertEquals("9223372036854775807", interpret("(- (+ 9223372036854775807 1) 1)", env));
+        assertEquals("3", interpret("(mod 100000000000000000003 10)", env));
+        assertEquals("#t", interpret("(> 100000000000000000000 99999999999999999999)", env));
+        assertEquals(number(Long.MAX_VALUE), parse(interpret("(- (+ 9223372036854775807 1) 1)", env)));
+        assertException(LispException.class, () -> interpret("(/ 100000000000000000000 0)", env));
+    }
+
+    /**
+     * Overflow in function bodies gives the same results, before and after
+     * they are compiled
+     */
+    @Test
+    public void testOverflowInFunctions() {
+        int threshold = Jit.threshold();
+        int failures = Jit.failures();
+        boolean optimizing = Optimizer.isEnabled();
+        Jit.setThreshold(3);
+        Optimizer.setEnabled(false);
+        try {
+            Environment env = new Environment();
+            interpret("(define fact (lambda (n) (if (eq n 0) 1 (* n (fact (- n 1))))))", env);
+            interpret("(define square-plus (lambda (x y) (+ (* x x) (- y 1))))", env);
+            for (int i = 0; i < 5; i++) {
+                assertEquals("15511210043330985984000000", interpret("(fact 25)", env));
+                assertEquals("2432902008176640000", interpret("(fact 20)", env));
+                assertEquals("10", interpret("(square-plus 3 2)", env));
+                assertEquals("85070591730234615847396907784232501250", interpret("(square-plus 9223372036854775807 2)", env));
+                assertEquals("9223372036854775806", interpret("(square-plus 0 9223372036854775807)", env));
+                assertEquals("-9223372036854775809", interpret("(square-plus 0 -9223372036854775808)", env));
+            }
+            assertEquals(failures, Jit.failures());
+        } finally {
+            Jit.setThreshold(threshold);
+            Optimizer.setEnabled(optimizing);
+        }
+    }
+}
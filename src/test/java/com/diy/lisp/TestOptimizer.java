@@ -0,0 +1,145 @@
+package com.diy.lisp;
+
+import com.diy.lisp.model.AbstractSyntaxTree;
+import com.diy.lisp.model.Environment;
+import com.diy.lisp.model.Optimizer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.HashMap;
+
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.Interpreter.interpretFile;
+import static com.diy.lisp.Parser.parse;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestOptimizer {
+
+    private boolean optimizing;
+    private Environment env;
+
+    @Before
+    public void setUp() {
+        optimizing = Optimizer.isEnabled();
+        Optimizer.setEnabled(true);
+        env = new Environment();
+    }
+
+    @After
+    public void tearDown() {
+        Optimizer.setEnabled(optimizing);
+    }
+
+    private String optimize(String source) {
+        return Optimizer.optimize(parse(source), env).toString();
+    }
+
+    /**
+     * Special forms on literals are replaced by their values
+     */
+    @Test
+    public void testFoldingConstants() {
+        assertEquals("3600", optimize("(* 60 60)"));
+        assertEquals("#t", optimize("(> (* 60 60) (+ 1000 (- 2000 1)))"));
+        assertEquals("'(1 2 3)", optimize("(cons 1 (tail '(0 2 3)))"));
+        assertEquals("#t", optimize("(atom (head '(foo bar)))"));
+        assertEquals("(lambda (x) (* x 86400))", optimize("(lambda (x) (* x (* 24 (* 60 60))))"));
+    }
+
+    /**
+     * Forms that would fail are left to fail when evaluated
+     */
+    @Test
+    public void testFailingFormsAreKept() {
+        assertEquals("(/ 3600 0)", optimize("(/ (* 60 60) 0)"));
+        assertEquals("(head '())", optimize("(head '())"));
+        assertEquals("(+ 1 2 3)", optimize("(+ 1 2 3)"));
+        assertEquals("(+ 1 'x)", optimize("(+ 1 'x)"));
+    }
+
+    /**
+     * Only the branch taken of conditionals with literal conditions is kept
+     */
+    @Test
+    public void testPruningBranches() {
+        assertEquals("a", optimize("(if #t a b)"));
+        assertEquals("b", optimize("(if (> 1 2) a b)"));
+        assertEquals("(if x a 3)", optimize("(if x a (+ 1 2))"));
+        assertEquals("(cond ((x 1) (#t 2)))", optimize("(cond ((#f 0) (x 1) (#t 2) (y 3)))"));
+        assertEquals("2", optimize("(cond (((eq 1 2) 0) ((eq 1 1) 2) (y 3)))"));
+        assertEquals("#f", optimize("(cond ((#f 0)))"));
+    }
+
+    /**
+     * Global variables holding literal values are replaced by them, unless
+     * hidden by a local variable
+     */
+    @Test
+    public void testGlobalConstants() {
+        interpret("(define hour (* 60 60))", env);
+        assertEquals("(lambda (x) (* x 3600))", optimize("(lambda (x) (* x hour))"));
+        assertEquals("(lambda (hour) (* 2 hour))", optimize("(lambda (hour) (* 2 hour))"));
+        assertEquals("(let ((hour 1)) hour)", optimize("(let ((hour 1)) hour)"));
+        assertEquals("(lambda (x) (if x (define hour 1) hour))", optimize("(lambda (x) (if x (define hour 1) hour))"));
+        assertEquals("undefined", optimize("undefined"));
+    }
+
+    /**
+     * Small standard library functions called with literals are replaced by
+     * their results
+     */
+    @Test
+    public void testInliningStdlib() {
+        interpretFile(System.getProperty("user.dir") + File.separator + "stdlib.diy", env);
+        assertEquals("#f", optimize("(not #t)"));
+        assertEquals("#t", optimize("(<= 1 2)"));
+        assertEquals("#t", optimize("(xor #t (>= 1 2))"));
+        assertEquals("(not x)", optimize("(not x)"));
+        assertEquals("(lambda (not) (not #t))", optimize("(lambda (not) (not #t))"));
+        assertEquals("(length '(1 2 3))", optimize("(length '(1 2 3))"));
+        assertEquals("3", interpret("(length '(1 2 3))", env));
+
+        interpret("(define loop (lambda (x) (loop x)))", env);
+        assertEquals("(loop 1)", optimize("(loop 1)"));
+    }
+
+    /**
+     * The optimized forms can be printed as they are evaluated
+     */
+    @Test
+    public void testDump() {
+        PrintStream err = System.err;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(out, true));
+        Optimizer.setDump(true);
+        try {
+            assertEquals("86400", interpret("(* 24 (* 60 60))", env));
+            interpret("(define x 1)", env);
+        } finally {
+            Optimizer.setDump(false);
+            System.setErr(err);
+        }
+        String dump = out.toString();
+        assertTrue(dump.contains(";; (* 24 (* 60 60))"));
+        assertTrue(dump.contains(";; => 86400"));
+        assertFalse(dump.contains("define"));
+    }
+
+    /**
+     * Nothing is changed in an environment whose variables could still be
+     * hidden by new definitions
+     */
+    @Test
+    public void testNestedEnvironment() {
+        interpret("(define x 1)", env);
+        Environment inner = env.extend(new HashMap<>());
+        AbstractSyntaxTree lambda = parse("(lambda () (+ x 1))");
+        assertEquals(lambda, Optimizer.optimize(lambda, inner));
+    }
+}
@@ -0,0 +1,117 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.LispException;
+import com.diy.lisp.model.Environment;
+import com.diy.lisp.model.Parallel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.Interpreter.interpretFile;
+import static com.diy.lisp.TestHelpers.assertException;
+import static junit.framework.TestCase.assertEquals;
+
+public class TestParallel {
+
+    private Environment env;
+    private int threshold;
+
+    @Before
+    public void setUp() {
+        env = new Environment();
+        interpretFile(System.getProperty("user.dir") + File.separator + "stdlib.diy", env);
+        interpret("(define numbers (range 1 5000))", env);
+        threshold = Parallel.threshold();
+        Parallel.setThreshold(16);
+    }
+
+    @After
+    public void tearDown() {
+        Parallel.setThreshold(threshold);
+    }
+
+    /**
+     * The parallel versions give the results of the sequential ones, in the
+     * same order
+     */
+    @Test
+    public void testSameResultsAsSequential() {
+        interpret("(define score (lambda (x) (mod (* x 7919) 1009)))", env);
+        assertEquals(interpret("(map score numbers)", env), interpret("(pmap score numbers)", env));
+        assertEquals(interpret("(filter (lambda (x) (> (score x) 500)) numbers)", env),
+                interpret("(pfilter (lambda (x) (> (score x) 500)) numbers)", env));
+        assertEquals(interpret("(sum numbers)", env), interpret("(preduce (lambda (a b) (+ a b)) 0 numbers)", env));
+    }
+
+    /**
+     * `preduce` combines neighbouring results only, so an associative function
+     * that is not commutative gives the sequential result
+     */
+    @Test
+    public void testReduceKeepsOrder() {
+        assertEquals(interpret("(cons 0 numbers)", env),
+                interpret("(preduce append '(0) (pmap (lambda (x) (cons x '())) numbers))", env));
+    }
+
+    @Test
+    public void testSmallAndEmptyLists() {
+        assertEquals("()", interpret("(pmap (lambda (x) x) '())", env));
+        assertEquals("()", interpret("(pfilter (lambda (x) x) '())", env));
+        assertEquals("5", interpret("(preduce (lambda (a b) (+ a b)) 5 '())", env));
+        assertEquals("6", interpret("(preduce (lambda (a b) (+ a b)) 5 '(1))", env));
+        assertEquals("(2 4 6)", interpret("(pmap (lambda (x) (* x 2)) (lazy-range 1 3))", env));
+    }
+
+    /**
+     * Parallel calls can be made inside functions, and nested
+     */
+    @Test
+    public void testInsideFunctions() {
+        interpret("(define row (lambda (n) (pmap (lambda (x) (* x n)) (range 1 40))))", env);
+        interpret("(define table (lambda (n) (pmap row (range 1 n))))", env);
+        assertEquals("820", interpret("(sum (head (table 40)))", env));
+        assertEquals("32800", interpret("(sum (head (reverse (table 40))))", env));
+    }
+
+    /**
+     * A function first called from many threads at once specializes its
+     * nodes and gets compiled while they run it
+     */
+    @Test
+    public void testFreshFunctionOnManyThreads() {
+        for (int i = 0; i < 20; i++) {
+            interpret("(define f" + i + " (lambda (x) (if (> x 2500) (* x 2) (+ (g" + i + " x) 1))))", env);
+            interpret("(define g" + i + " (lambda (x) (- x 1)))", env);
+            String parallel = interpret("(pmap f" + i + " numbers)", env);
+            assertEquals(interpret("(map f" + i + " numbers)", env), parallel);
+        }
+    }
+
+    /**
+     * The parallel functions are values like the others: they can be
+     * passed to other functions, and their names bound to something else
+     */
+    @Test
+    public void testFunctionValues() {
+        interpret("(define double (lambda (lst) (pmap (lambda (x) (* x 2)) lst)))", env);
+        assertEquals("((2 4) (6))", interpret("(map double '((1 2) (3)))", env));
+        interpret("(define fs (cons pmap (cons pfilter '())))", env);
+        assertEquals("((2 4) (1 2))", interpret("(map (lambda (f) (f (lambda (x) (* x 2)) '(1 2))) fs)", env));
+        assertEquals("(2 4)", interpret("((lambda (f) (f (lambda (x) (* x 2)) '(1 2))) pmap)", env));
+        assertEquals("3", interpret("((lambda (pmap) (pmap 1 2)) (lambda (a b) (+ a b)))", env));
+        assertEquals("6", interpret("(let ((preduce (lambda (f acc lst) acc))) (preduce 1 6 '()))", env));
+        assertEquals("[Builtin pfilter]", interpret("pfilter", env));
+    }
+
+    @Test
+    public void testErrors() {
+        assertException(LispException.class, () -> interpret("(pmap 1 numbers)", env));
+        assertException(LispException.class, () -> interpret("(pfilter (lambda (x) x) 1)", env));
+        assertException(LispException.class, () -> interpret("(preduce (lambda (a b) a) numbers)", env));
+        assertException(LispException.class, () -> interpret("(pmap (lambda (x) (/ 1 (- x 3000))) numbers)", env));
+        assertException(LispException.class, () -> interpret("(pmap (lambda (a b) a) numbers)", env));
+    }
+}
@@ -0,0 +1,117 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.LispException;
+import com.diy.lisp.model.AbstractSyntaxTree;
+import com.diy.lisp.model.Environment;
+import com.diy.lisp.model.Jit;
+import com.diy.lisp.model.Optimizer;
+import com.diy.lisp.model.Procedure;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.Interpreter.interpretFile;
+import static com.diy.lisp.TestHelpers.assertException;
+import static com.diy.lisp.model.Int.number;
+import static com.diy.lisp.model.SList.list;
+import static com.diy.lisp.model.Symbol.symbol;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class TestProcedures {
+
+    private Procedure procedure(String source, Environment env) {
+        return (Procedure) env.lookup(symbol(interpret(source, env)));
+    }
+
+    /**
+     * Closures and builtins can be called from Java with any number of
+     * arguments
+     */
+    @Test
+    public void testCallingFromJava() {
+        Environment env = new Environment();
+        interpretFile(System.getProperty("user.dir") + File.separator + "stdlib.diy", env);
+
+        assertEquals(number(0), procedure("(define zero (lambda () 0))", env).call0());
+        assertEquals(number(2), procedure("(define inc (lambda (a) (+ a 1)))", env).call1(number(1)));
+        assertEquals(number(3), procedure("(define add (lambda (a b) (+ a b)))", env).call2(number(1), number(2)));
+        assertEquals(number(6), procedure("(define add3 (lambda (a b c) (+ a (+ b c))))", env)
+                .call3(number(1), number(2), number(3)));
+        assertEquals(number(10), procedure("(define add4 (lambda (a b c d) (+ (+ a b) (+ c d))))", env)
+                .call4(number(1), number(2), number(3), number(4)));
+        assertEquals(number(15), procedure("(define add5 (lambda (a b c d e) (+ (+ a b) (+ c (+ d e)))))", env)
+                .apply(number(1), number(2), number(3), number(4), number(5)));
+        assertEquals(number(3), procedure("(define defining (lambda (a b) (let ((d (define c (+ a b)))) c)))", env)
+                .call2(number(1), number(2)));
+
+        Procedure length = (Procedure) env.lookup(symbol("length"));
+        assertEquals(number(2), length.call1(list(number(1), number(2))));
+        assertEquals(number(0), length.apply(list()));
+    }
+
+    /**
+     * Builtins called with a known number of arguments are handed them
+     * without an array being made. Measured before the JIT compiles the
+     * calls, when every allocation still happens
+     */
+    @Test
+    public void testBuiltinCallsMakeNoArray() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+
+        Environment env = new Environment();
+        Procedure length = (Procedure) env.lookup(symbol("length"));
+        AbstractSyntaxTree lst = list(number(1), number(2));
+        int calls = 1000;
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < calls; i++)
+            length.call1(lst);
+        long bytes = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue("allocated " + bytes + " bytes", bytes < calls * 16);
+    }
+
+    @Test
+    public void testWrongNumberOfArguments() {
+        Environment env = new Environment();
+        interpretFile(System.getProperty("user.dir") + File.separator + "stdlib.diy", env);
+        Procedure add = procedure("(define add (lambda (a b) (+ a b)))", env);
+
+        assertException(LispException.class, add::call0);
+        assertException(LispException.class, () -> add.call1(number(1)));
+        assertException(LispException.class, () -> add.apply(number(1), number(2), number(3)));
+        assertException(LispException.class, () -> ((Procedure) env.lookup(symbol("map"))).call1(list()));
+    }
+
+    /**
+     * Calls of every size give the same results before and after the calling
+     * function is compiled
+     */
+    @Test
+    public void testCallsOfEverySize() {
+        int threshold = Jit.threshold();
+        boolean optimizing = Optimizer.isEnabled();
+        Jit.setThreshold(3);
+        Optimizer.setEnabled(false);
+        try {
+            Environment env = new Environment();
+            interpret("(define f0 (lambda () 1))", env);
+            interpret("(define f1 (lambda (a) a))", env);
+            interpret("(define f5 (lambda (a b c d e) (- a (- b (- c (- d e))))))", env);
+            interpret("(define f6 (lambda (a b c d e f) (f5 a b c d (- e f))))", env);
+            interpret("(define g (lambda (x) (+ (f0) (+ (f1 x) (f6 x 2 3 4 5 6)))))", env);
+            for (int i = 0; i < 5; i++)
+                assertEquals("-1", interpret("(g 1)", env));
+        } finally {
+            Jit.setThreshold(threshold);
+            Optimizer.setEnabled(optimizing);
+        }
+    }
+}
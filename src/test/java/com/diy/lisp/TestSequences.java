@@ -0,0 +1,158 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.LispException;
+import com.diy.lisp.model.Environment;
+import com.diy.lisp.model.Memoized;
+import com.diy.lisp.model.Seq;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.Interpreter.interpretFile;
+import static com.diy.lisp.TestHelpers.assertException;
+import static com.diy.lisp.model.Symbol.symbol;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertSame;
+
+public class TestSequences {
+
+    private String path = System.getProperty("user.dir") + File.separator + "stdlib.diy";
+    private String lists = String.join(File.separator, System.getProperty("user.dir"), "src", "test", "resources",
+            "lists.diy");
+    private Environment env;
+
+    /**
+     * The list functions defined in Lisp, which only know sequences through
+     * `head`, `tail` and `empty`.
+     */
+    private Environment lisp;
+
+    @Before
+    public void setUp() {
+        env = new Environment();
+        interpretFile(path, env);
+        lisp = new Environment();
+        interpretFile(path, lisp);
+        interpretFile(lists, lisp);
+    }
+
+    private void assertBoth(String expected, String program) {
+        assertEquals(expected, interpret(program, env));
+        assertEquals(expected, interpret(program, lisp));
+    }
+
+    /**
+     * `head`, `tail` and `empty` take sequences like lists
+     */
+    @Test
+    public void testHeadTailAndEmpty() {
+        assertEquals("1", interpret("(head (lazy-range 1 3))", env));
+        assertEquals("(2 3)", interpret("(tail (lazy-range 1 3))", env));
+        assertEquals("#f", interpret("(empty (lazy-range 1 3))", env));
+        assertEquals("#t", interpret("(empty (lazy-range 3 2))", env));
+        assertEquals("()", interpret("(lazy-range 3 2)", env));
+        assertEquals("#f", interpret("(atom (lazy-range 1 3))", env));
+        assertEquals("(2 4 6)", interpret("(lazy-map (lambda (x) (* x 2)) '(1 2 3))", env));
+        assertEquals("(\"b\" \"c\")", interpret("(lazy-filter (lambda (c) (eq #f (eq c \"a\"))) \"abc\")", env));
+    }
+
+    /**
+     * The list functions of the library take sequences, as Java builtins and
+     * as Lisp
+     */
+    @Test
+    public void testLibraryFunctions() {
+        String evens = "(lazy-filter (lambda (x) (eq (mod x 2) 0)) (lazy-range 1 10))";
+        assertBoth("220", "(sum (lazy-map (lambda (x) (* x x)) " + evens + "))");
+        assertBoth("5", "(length " + evens + ")");
+        assertBoth("(10 8 6 4 2)", "(reverse " + evens + ")");
+        assertBoth("(3 5 7 9 11)", "(map (lambda (x) (+ x 1)) " + evens + ")");
+        assertBoth("(6 8 10)", "(filter (lambda (x) (> x 5)) " + evens + ")");
+        assertBoth("(2 4 6 8 10 1)", "(append " + evens + " '(1))");
+        assertBoth("(1 2 3)", "(sort (lazy-map (lambda (x) (- 4 x)) (lazy-range 1 3)))");
+        assertBoth("30", "(reduce (lambda (a b) (+ a b)) 0 " + evens + ")");
+    }
+
+    /**
+     * Elements are only computed when they are asked for
+     */
+    @Test
+    public void testLaziness() {
+        assertEquals("4", interpret("(head (tail (lazy-map (lambda (x) (/ 12 x)) '(0 3))))", env));
+        assertEquals("3", interpret("(head (lazy-filter (lambda (x) (> x 2)) (lazy-range 1 1000000000000)))", env));
+        assertEquals("(1 2 3)", interpret("(lazy-map (lambda (x) x) (lazy-map (lambda (x) x) (lazy-range 1 3)))",
+                env));
+    }
+
+    /**
+     * Consing onto a sequence makes a sequence, without computing the
+     * elements of the tail
+     */
+    @Test
+    public void testConsOntoSequences() {
+        assertBoth("(0 1 2 3)", "(cons 0 (lazy-range 1 3))");
+        assertBoth("(0 1 2 3)", "(append '(0) (lazy-range 1 3))");
+        assertBoth("6", "(sum (cons 0 (lazy-range 1 3)))");
+        assertEquals("0", interpret("(head (cons 0 (lazy-map (lambda (x) (/ 1 x)) '(0))))", env));
+        assertEquals("(1 2)", interpret("(tail (append '(0 1) (lazy-range 2 2)))", env));
+        assertEquals("#f", interpret("(empty (cons 0 (lazy-range 3 2)))", env));
+
+        interpret("(defn f (s) (cons 0 s))", env);
+        assertEquals("(0 5)", interpret("(f (lazy-range 5 5))", env));
+    }
+
+    /**
+     * The tail of a sequence is computed once
+     */
+    @Test
+    public void testTailKept() {
+        interpret("(define s (lazy-map (lambda (x) (* x 2)) (lazy-range 1 3)))", env);
+        Seq seq = (Seq) env.lookup(symbol("s"));
+        assertSame(seq.tail(), seq.tail());
+        assertSame(seq.tail().tail(), seq.tail().tail());
+        assertEquals("(4 6)", seq.tail().toString());
+    }
+
+    /**
+     * Walking a sequence with the list functions keeps the cells it
+     * computes, like `tail` does, so walking it again computes nothing
+     */
+    @Test
+    public void testWalksShareCells() {
+        interpret("(define f (memoize (lambda (x) (* x 2))))", env);
+        interpret("(define s (lazy-map f (lazy-range 1 5)))", env);
+        assertEquals("5", interpret("(length s)", env));
+        assertEquals("30", interpret("(sum s)", env));
+        assertEquals("6", interpret("(head (tail (tail s)))", env));
+        assertEquals("(2 4 6 8 10)", interpret("s", env));
+
+        Memoized f = (Memoized) env.lookup(symbol("f"));
+        assertEquals(5, f.misses());
+        assertEquals(0, f.hits());
+    }
+
+    /**
+     * Long pipelines are walked one element at a time
+     */
+    @Test
+    public void testLongSequences() {
+        assertEquals("500000500000", interpret("(sum (lazy-range 1 1000000))", env));
+        assertEquals("500000", interpret("(length (lazy-filter (lambda (x) (eq (mod x 2) 0)) "
+                + "(lazy-range 1 1000000)))", env));
+
+        interpret("(define count (lambda (s n) (if (empty s) n (count (tail s) (+ n 1)))))", env);
+        assertEquals("100000", interpret("(count (lazy-map (lambda (x) (+ x 1)) (lazy-range 1 100000)) 0)", env));
+    }
+
+    @Test
+    public void testErrors() {
+        assertException(LispException.class, () -> interpret("(lazy-range 1 \"a\")", env));
+        assertException(LispException.class, () -> interpret("(lazy-map 1 '())", env));
+        assertException(LispException.class, () -> interpret("(lazy-filter (lambda (x) x) 1)", env));
+        assertException(LispException.class, () -> interpret("(head (lazy-range 2 1))", env));
+        assertException(LispException.class, () -> interpret("(tail (lazy-filter (lambda (x) #f) '(1 2)))", env));
+        assertException(LispException.class, () -> interpret("(lazy-range 1)", env));
+    }
+}
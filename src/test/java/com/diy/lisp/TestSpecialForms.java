@@ -0,0 +1,87 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.LispException;
+import com.diy.lisp.model.AbstractSyntaxTree;
+import com.diy.lisp.model.Environment;
+import com.diy.lisp.model.SpecialForm;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.diy.lisp.Evaluator.evaluate;
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.TestHelpers.assertException;
+import static com.diy.lisp.model.Bool.FALSE;
+import static com.diy.lisp.model.Symbol.symbol;
+import static junit.framework.TestCase.assertEquals;
+
+public class TestSpecialForms {
+
+    @Before
+    public void setUp() {
+        SpecialForm.register(symbol("unless"), (exps, env, tail) -> {
+            AbstractSyntaxTree test = evaluate(exps.get(0), env);
+            return evaluate(exps.get(test == FALSE ? 1 : 2), env);
+        });
+    }
+
+    @After
+    public void tearDown() {
+        SpecialForm.unregister(symbol("unless"));
+    }
+
+    /**
+     * Registered forms receive their arguments unevaluated, like the forms
+     * of the language
+     */
+    @Test
+    public void testRegisteredForm() {
+        Environment env = new Environment();
+        assertEquals("1", interpret("(unless #f 1 2)", env));
+        assertEquals("2", interpret("(unless #t undefined-variable 2)", env));
+    }
+
+    /**
+     * Registered forms work inside functions, and see the variables around
+     * them, including those of closures
+     */
+    @Test
+    public void testRegisteredFormInFunctions() {
+        Environment env = new Environment();
+        interpret("(define abs (lambda (x) (unless (> 0 x) x (- 0 x))))", env);
+        interpret("(define adder (lambda (n) (let ((m (+ n 1))) (lambda (x) (unless (eq x 0) (+ x m) m)))))", env);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("3", interpret("(abs 3)", env));
+            assertEquals("3", interpret("(abs -3)", env));
+            assertEquals("4", interpret("((adder 2) 1)", env));
+            assertEquals("3", interpret("((adder 2) 0)", env));
+        }
+    }
+
+    @Test
+    public void testFormsOfTheLanguageCannotBeReplaced() {
+        assertException(LispException.class, () -> {
+            SpecialForm.register(symbol("if"), (exps, env, tail) -> FALSE);
+            return null;
+        });
+        assertEquals("1", interpret("(if #t 1 2)", new Environment()));
+        assertException(LispException.class, () -> {
+            SpecialForm.unregister(symbol("if"));
+            return null;
+        });
+    }
+
+    /**
+     * A form that is removed is a plain symbol again
+     */
+    @Test
+    public void testUnregisteredForm() {
+        Environment env = new Environment();
+        SpecialForm.unregister(symbol("unless"));
+        assertException(LispException.class, () -> interpret("(unless #f 1 2)", env));
+
+        interpret("(define unless (lambda (a b c) c))", env);
+        assertEquals("2", interpret("(unless #f 1 2)", env));
+    }
+}
@@ -0,0 +1,149 @@
+package com.diy.lisp;
+
+import com.diy.lisp.exception.ParseException;
+import com.diy.lisp.model.AbstractSyntaxTree;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+import static com.diy.lisp.Parser.parse;
+import static com.diy.lisp.Parser.parseStream;
+import static com.diy.lisp.TestHelpers.assertException;
+import static com.diy.lisp.model.SList.list;
+import static com.diy.lisp.model.SList.quote;
+import static com.diy.lisp.model.Str.str;
+import static com.diy.lisp.model.Symbol.symbol;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestStreaming {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Expressions are handed out one at a time, in order
+     */
+    @Test
+    public void testParseStreamReturnsExpressionsInOrder() {
+        Iterator<AbstractSyntaxTree> it = parseStream(new StringReader("foo ; comment\n (bar 'baz) \"qux\""));
+        assertEquals(symbol("foo"), it.next());
+        assertEquals(parse("(bar 'baz)"), it.next());
+        assertEquals(str("qux"), it.next());
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Returning an expression must not read any of the input following it
+     */
+    @Test
+    public void testParseStreamDoesNotReadAhead() {
+        CountingReader reader = new CountingReader("(first form)(second form)");
+        Iterator<AbstractSyntaxTree> it = parseStream(reader);
+        assertEquals(parse("(first form)"), it.next());
+        assertEquals("(first form)".length(), reader.read);
+        assertTrue(it.hasNext());
+    }
+
+    /**
+     * Tokens crossing the boundary of the lexer's window must come out whole,
+     * no matter how small the window is
+     */
+    @Test
+    public void testTokensSpanningRefills() {
+        Lexer lexer = new Lexer(new StringReader("(a-rather-long-symbol \"and a long string\")"), 4);
+        assertEquals(Lexer.Token.OPEN, lexer.token());
+        lexer.consume();
+        assertEquals("a-rather-long-symbol", lexer.text());
+        lexer.consume();
+        assertEquals("and a long string", lexer.text());
+        assertEquals(22, lexer.start());
+        lexer.consume();
+        assertEquals(Lexer.Token.CLOSE, lexer.token());
+        lexer.consume();
+        assertEquals(Lexer.Token.EOF, lexer.token());
+    }
+
+    /**
+     * Strings and other character sequences are lexed from a copy of their
+     * own size, with nothing to refill
+     */
+    @Test
+    public void testCharSequenceSources() {
+        Lexer lexer = new Lexer(new StringBuilder("(head \"a b\") ; done"));
+        assertEquals(Lexer.Token.OPEN, lexer.token());
+        lexer.consume();
+        assertEquals("head", lexer.text());
+        lexer.consume();
+        assertEquals("a b", lexer.text());
+        assertEquals(6, lexer.start());
+        lexer.consume();
+        lexer.consume();
+        assertEquals(Lexer.Token.EOF, lexer.token());
+
+        assertEquals(Lexer.Token.EOF, new Lexer("").token());
+        assertEquals(Lexer.Token.EOF, new Lexer(" ; nothing").token());
+        assertException(ParseException.class, () -> new Lexer("\"open").token());
+    }
+
+    /**
+     * An incomplete expression at the end of the stream is still a parse error
+     */
+    @Test
+    public void testIncompleteExpressionInStream() {
+        Iterator<AbstractSyntaxTree> it = parseStream(new StringReader("(foo) (bar"));
+        it.next();
+        assertException(ParseException.class, it::next);
+    }
+
+    /**
+     * Mapped files are decoded region by region. Characters whose bytes are split
+     * between two regions must still come out whole.
+     */
+    @Test
+    public void testMappedSourceAcrossRegions() throws IOException {
+        File file = folder.newFile("mapped.diy");
+        Files.write(file.toPath(), "(h\u00e9llo \"w\u00f6rld \u2713\") ; \u00e6\u00f8\u00e5\n'done".getBytes(StandardCharsets.UTF_8));
+
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            Iterator<AbstractSyntaxTree> it = parseStream(new MappedSource(channel, StandardCharsets.UTF_8, 5));
+            assertEquals(list(symbol("h\u00e9llo"), str("w\u00f6rld \u2713")), it.next());
+            assertEquals(quote(symbol("done")), it.next());
+            assertFalse(it.hasNext());
+        }
+    }
+
+    /**
+     * Reader handing out one character per read, keeping count of how many it has given
+     */
+    private static class CountingReader extends Reader {
+        private final String source;
+        private int read;
+
+        CountingReader(String source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (read == source.length())
+                return -1;
+            cbuf[off] = source.charAt(read++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
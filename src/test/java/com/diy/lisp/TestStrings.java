@@ -0,0 +1,56 @@
+package com.diy.lisp;
+
+import com.diy.lisp.model.Str;
+import org.junit.Test;
+
+import static com.diy.lisp.model.Str.str;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertFalse;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestStrings {
+
+    /**
+     * Strings put together from different pieces are still equal when their
+     * characters are, and hash like Java strings
+     */
+    @Test
+    public void testEqualityAcrossPieces() {
+        Str consed = str("bar").cons(str("o")).cons(str("fo"));
+        assertEquals(str("foobar"), consed);
+        assertEquals(consed, str("xfoobar").tail());
+        assertEquals("foobar".hashCode(), consed.hashCode());
+        assertEquals("\"foobar\"", consed.toString());
+        assertFalse(consed.equals(str("foobaz")));
+    }
+
+    /**
+     * Taking the tail of a consed string walks back into the original string
+     */
+    @Test
+    public void testHeadAndTailOfConsedString() {
+        Str s = str("bc").cons(str("a"));
+        assertEquals(str("a"), s.head());
+        assertEquals(str("bc"), s.tail());
+        assertEquals(str("c"), s.tail().tail());
+        assertTrue(s.tail().tail().tail().isEmpty());
+        assertEquals(str("bc"), str("").cons(str("bc")));
+    }
+
+    /**
+     * Walking a large string one character at a time takes linear time
+     */
+    @Test(timeout = 5000)
+    public void testWalkingLargeString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000000; i++)
+            sb.append((char) ('a' + i % 26));
+
+        Str reversed = str("");
+        for (Str s = str(sb.toString()); !s.isEmpty(); s = s.tail())
+            reversed = reversed.cons(s.head());
+
+        assertEquals(1000000, reversed.length());
+        assertEquals(sb.reverse().toString(), reversed.value());
+    }
+}
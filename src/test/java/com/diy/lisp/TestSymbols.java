@@ -0,0 +1,60 @@
+package com.diy.lisp;
+
+import com.diy.lisp.model.SList;
+import com.diy.lisp.model.Symbol;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.diy.lisp.Parser.parse;
+import static com.diy.lisp.model.Symbol.symbol;
+import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNotSame;
+import static junit.framework.TestCase.assertSame;
+import static junit.framework.TestCase.assertTrue;
+
+public class TestSymbols {
+
+    /**
+     * There is only ever one symbol for each name, no matter where it comes from
+     */
+    @Test
+    public void testSymbolsAreInterned() {
+        assertSame(symbol("foo"), symbol("foo"));
+        assertSame(symbol("foo"), parse("foo"));
+        assertSame(symbol("bar"), ((SList) parse("(foo bar)")).get(1));
+        assertNotSame(symbol("foo"), symbol("bar"));
+    }
+
+    /**
+     * Each symbol gets its own id
+     */
+    @Test
+    public void testSymbolIdsAreUnique() {
+        assertEquals(symbol("baz").id(), symbol("baz").id());
+        assertTrue(symbol("baz").id() != symbol("qux").id());
+    }
+
+    /**
+     * Parsers running on several threads at once must agree on the symbol instances
+     */
+    @Test
+    public void testConcurrentInterning() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Symbol>> futures = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                String name = "concurrent-" + (i % 10);
+                futures.add(pool.submit(() -> (Symbol) parse(name)));
+            }
+            for (int i = 0; i < futures.size(); i++)
+                assertSame(symbol("concurrent-" + (i % 10)), futures.get(i).get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
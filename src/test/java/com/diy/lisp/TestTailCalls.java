@@ -0,0 +1,82 @@
+package com.diy.lisp;
+
+import com.diy.lisp.model.Environment;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static com.diy.lisp.Interpreter.interpret;
+import static com.diy.lisp.Interpreter.interpretFile;
+import static junit.framework.TestCase.assertEquals;
+
+public class TestTailCalls {
+
+    private static final String LOOP = "1000000";
+
+    /**
+     * A tail recursive loop runs in constant stack
+     */
+    @Test
+    public void testTailRecursion() throws Throwable {
+        Environment env = new Environment();
+        interpret("(define count (lambda (n acc) (if (eq n 0) acc (count (- n 1) (+ acc 1)))))", env);
+        assertEquals(LOOP, onSmallStack(() -> interpret("(count " + LOOP + " 0)", env)));
+    }
+
+    /**
+     * Functions calling each other in tail position run in constant stack too
+     */
+    @Test
+    public void testMutualRecursion() throws Throwable {
+        Environment env = new Environment();
+        interpret("(define even (lambda (n) (if (eq n 0) #t (odd (- n 1)))))", env);
+        interpret("(define odd (lambda (n) (if (eq n 0) #f (even (- n 1)))))", env);
+        assertEquals("#t", onSmallStack(() -> interpret("(even " + LOOP + ")", env)));
+    }
+
+    /**
+     * The bodies of `cond` clauses and of `let` are in tail position
+     */
+    @Test
+    public void testCondAndLet() throws Throwable {
+        Environment env = new Environment();
+        interpret("(define loop (lambda (n) (cond (((eq n 0) 'done) (#t (let ((m (- n 1))) (loop m)))))))", env);
+        assertEquals("done", onSmallStack(() -> interpret("(loop " + LOOP + ")", env)));
+    }
+
+    /**
+     * The list functions of the standard library work on long lists
+     */
+    @Test
+    public void testStdlib() throws Throwable {
+        Environment env = new Environment();
+        interpretFile(System.getProperty("user.dir") + File.separator + "stdlib.diy", env);
+        interpret("(define numbers (range 1 100000))", env);
+        assertEquals("100000", onSmallStack(() -> interpret("(length numbers)", env)));
+        assertEquals("100000", onSmallStack(() -> interpret("(sum (map (lambda (x) 1) numbers))", env)));
+    }
+
+    /**
+     * Runs `program` on a thread with a stack far too small for a million
+     * nested calls.
+     */
+    private static String onSmallStack(Supplier<String> program) throws Throwable {
+        AtomicReference<String> result = new AtomicReference<>();
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        Thread thread = new Thread(null, () -> {
+            try {
+                result.set(program.get());
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        }, "small-stack", 256 * 1024);
+        thread.start();
+        thread.join();
+
+        if (error.get() != null)
+            throw error.get();
+        return result.get();
+    }
+}
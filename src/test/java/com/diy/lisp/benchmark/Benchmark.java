@@ -0,0 +1,68 @@
+package com.diy.lisp.benchmark;
+
+import com.diy.lisp.Interpreter;
+import com.diy.lisp.model.Environment;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+import static com.diy.lisp.model.Environment.env;
+
+/**
+ * A small harness for the benchmarks in this package.
+ *
+ * These are plain programs rather than tests. Run one with
+ *
+ *  mvn -q test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.diy.lisp.benchmark.SomeBenchmark
+ *
+ * Each measurement reports the average time and the average number of bytes
+ * allocated by the current thread per operation, after a warmup phase.
+ */
+public class Benchmark {
+
+    private static final String STDLIB = System.getProperty("user.dir") + File.separator + "stdlib.diy";
+
+    /**
+     * Environment with the standard library loaded.
+     */
+    public static Environment stdlib() {
+        Environment env = env();
+        Interpreter.interpretFile(STDLIB, env);
+        return env;
+    }
+
+    /**
+     * Runs `body` on a thread with a stack large enough for the deeply recursive
+     * standard library functions, and waits for it to finish.
+     */
+    public static void withLargeStack(Runnable body) throws InterruptedException {
+        Thread thread = new Thread(null, body, "benchmark", 2L << 30);
+        thread.start();
+        thread.join();
+    }
+
+    public static void measure(String name, int iterations, Supplier<?> operation) {
+        for (int i = 0; i < iterations; i++)
+            operation.get();
+
+        long bytesBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++)
+            operation.get();
+        long elapsed = System.nanoTime() - start;
+        long bytes = allocatedBytes() - bytesBefore;
+
+        System.out.println(String.format("%-40s %12.1f us/op %14s bytes/op",
+                name,
+                elapsed / 1000.0 / iterations,
+                bytesBefore < 0 ? "n/a" : Long.toString(bytes / iterations)));
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+}
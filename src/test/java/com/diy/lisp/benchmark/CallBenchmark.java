@@ -0,0 +1,50 @@
+package com.diy.lisp.benchmark;
+
+import com.diy.lisp.model.AbstractSyntaxTree;
+import com.diy.lisp.model.Environment;
+
+import static com.diy.lisp.Evaluator.evaluate;
+import static com.diy.lisp.Parser.parse;
+import static com.diy.lisp.benchmark.Benchmark.measure;
+
+/**
+ * Function calls with few arguments, in the classic recursive benchmarks.
+ * Nearly all the time goes to calling, so the bytes allocated per operation
+ * show what each call costs beyond its frame. `nested` calls globals from
+ * inside `let` frames, which lookups by name have to search first, and
+ * `closures` makes and calls a closure over them.
+ *
+ * Run with -Ddiy.lisp.engine=BYTECODE to measure the bytecode engine.
+ */
+public class CallBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        Benchmark.withLargeStack(CallBenchmark::run);
+    }
+
+    private static void run() {
+        Environment env = Benchmark.stdlib();
+        evaluate(parse("(define fib (lambda (n) (if (> 2 n) n (+ (fib (- n 1)) (fib (- n 2))))))"), env);
+        evaluate(parse("(define tak (lambda (x y z) (if (> x y) "
+                + "(tak (tak (- x 1) y z) (tak (- y 1) z x) (tak (- z 1) x y)) z)))"), env);
+        evaluate(parse("(define count (lambda (n) (if (eq n 0) 0 (count (- n 1)))))"), env);
+        evaluate(parse("(define zero (lambda () 0))"), env);
+        evaluate(parse("(define calls (lambda (n) (if (eq n 0) (zero) (calls (- n (+ 1 (zero)))))))"), env);
+        evaluate(parse("(define nested (lambda (n) (let ((a 1) (b 2)) (let ((c 3) (d 4)) "
+                + "(if (eq n 0) (zero) (nested (- n (+ (zero) a))))))))"), env);
+        evaluate(parse("(define closures (lambda (n acc) (if (eq n 0) acc (closures (- n 1) "
+                + "(let ((a 1) (b 2)) (let ((c 3)) ((lambda (x) (+ x (- a c))) acc)))))))"), env);
+
+        bench("(fib 25)", 20, env);
+        bench("(tak 18 12 6)", 20, env);
+        bench("(count 100000)", 200, env);
+        bench("(calls 100000)", 200, env);
+        bench("(nested 100000)", 200, env);
+        bench("(closures 100000 0)", 200, env);
+    }
+
+    private static void bench(String program, int iterations, Environment env) {
+        AbstractSyntaxTree ast = parse(program);
+        measure(program, iterations, () -> evaluate(ast, env));
+    }
+}
@@ -0,0 +1,41 @@
+package com.diy.lisp.benchmark;
+
+import com.diy.lisp.model.AbstractSyntaxTree;
+import com.diy.lisp.model.Environment;
+
+import static com.diy.lisp.Evaluator.evaluate;
+import static com.diy.lisp.Parser.parse;
+import static com.diy.lisp.benchmark.Benchmark.measure;
+
+/**
+ * Allocation of number and boolean values in arithmetic heavy code.
+ *
+ * Run once as is, and once with -Ddiy.lisp.int.cache.high=-129 to turn the
+ * small Int cache off, and compare the bytes allocated per operation.
+ *
+ * The polynomial works with numbers outside the cache; once its function is
+ * compiled, only its final result should be allocated, not the intermediate
+ * ones.
+ */
+public class NumberAllocationBenchmark {
+
+    public static void main(String[] args) {
+        Environment env = Benchmark.stdlib();
+        evaluate(parse("(define numbers (range 1 200))"), env);
+        evaluate(parse("(define shuffled (map (lambda (x) (mod (* x 37) 200)) numbers))"), env);
+
+        evaluate(parse("(define poly (lambda (x) (mod (+ (* (+ x 2000) (- x 3000)) (* x 7)) 1000)))"), env);
+        evaluate(parse("(define polysum (lambda (n acc) (if (eq n 0) acc (polysum (- n 1) (+ acc (poly n))))))"), env);
+
+        AbstractSyntaxTree sumRange = parse("(sum (range 1 200))");
+        AbstractSyntaxTree sort = parse("(sort shuffled)");
+        AbstractSyntaxTree compare = parse("(length (filter (lambda (x) (<= x 100)) numbers))");
+
+        AbstractSyntaxTree polynomial = parse("(polysum 200 0)");
+
+        measure("(sum (range 1 200))", 2000, () -> evaluate(sumRange, env));
+        measure("(sort shuffled)", 200, () -> evaluate(sort, env));
+        measure("(length (filter ... numbers))", 2000, () -> evaluate(compare, env));
+        measure("(polysum 200 0)", 2000, () -> evaluate(polynomial, env));
+    }
+}
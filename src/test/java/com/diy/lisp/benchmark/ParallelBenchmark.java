@@ -0,0 +1,47 @@
+package com.diy.lisp.benchmark;
+
+import com.diy.lisp.model.AbstractSyntaxTree;
+import com.diy.lisp.model.Environment;
+
+import static com.diy.lisp.Evaluator.evaluate;
+import static com.diy.lisp.Parser.parse;
+import static com.diy.lisp.benchmark.Benchmark.measure;
+import static com.diy.lisp.benchmark.Benchmark.withLargeStack;
+
+/**
+ * `map`, `filter` and `reduce` against their parallel versions, with a
+ * function that takes some microseconds per element, over 2000 elements.
+ * The speedup is bounded by the number of cores; on a single core, this
+ * measures what splitting the work costs. Only the bytes the calling
+ * thread allocates are counted, so the parallel versions show less.
+ *
+ * Run with -Ddiy.lisp.parallel.threshold=N to change where lists are no
+ * longer split.
+ */
+public class ParallelBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        withLargeStack(ParallelBenchmark::run);
+    }
+
+    private static void run() {
+        Environment env = Benchmark.stdlib();
+        evaluate(parse("(define fib (lambda (n) (if (> 2 n) n (+ (fib (- n 1)) (fib (- n 2))))))"), env);
+        evaluate(parse("(define score (lambda (x) (+ x (fib 12))))"), env);
+        evaluate(parse("(define good (lambda (x) (eq (mod (score x) 3) 0)))"), env);
+        evaluate(parse("(define add (lambda (a b) (+ a (- b (fib 12)))))"), env);
+        evaluate(parse("(define numbers (range 1 2000))"), env);
+
+        bench("(map score numbers)", env);
+        bench("(pmap score numbers)", env);
+        bench("(filter good numbers)", env);
+        bench("(pfilter good numbers)", env);
+        bench("(reduce add 0 numbers)", env);
+        bench("(preduce add 0 numbers)", env);
+    }
+
+    private static void bench(String program, Environment env) {
+        AbstractSyntaxTree ast = parse(program);
+        measure(program, 20, () -> evaluate(ast, env));
+    }
+}
@@ -0,0 +1,40 @@
+package com.diy.lisp.benchmark;
+
+import com.diy.lisp.model.AbstractSyntaxTree;
+import com.diy.lisp.model.Environment;
+
+import static com.diy.lisp.Evaluator.evaluate;
+import static com.diy.lisp.Parser.parse;
+import static com.diy.lisp.benchmark.Benchmark.measure;
+import static com.diy.lisp.benchmark.Benchmark.withLargeStack;
+
+/**
+ * Pipelines over 100 000 numbers, built from lists and from lazy sequences.
+ * The bytes per operation are everything allocated; what the lazy versions
+ * allocate is garbage straight away, while the lists are all alive at once.
+ */
+public class SequenceBenchmark {
+
+    private static final int SIZE = 100000;
+
+    public static void main(String[] args) throws InterruptedException {
+        withLargeStack(SequenceBenchmark::run);
+    }
+
+    private static void run() {
+        Environment env = Benchmark.stdlib();
+        evaluate(parse("(define even (lambda (x) (eq (mod x 2) 0)))"), env);
+        evaluate(parse("(define square (lambda (x) (* x x)))"), env);
+
+        bench("(sum (range 1 %d))", env);
+        bench("(sum (lazy-range 1 %d))", env);
+        bench("(sum (map square (filter even (range 1 %d))))", env);
+        bench("(sum (lazy-map square (lazy-filter even (lazy-range 1 %d))))", env);
+    }
+
+    private static void bench(String program, Environment env) {
+        program = String.format(program, SIZE);
+        AbstractSyntaxTree ast = parse(program);
+        measure(program, 20, () -> evaluate(ast, env));
+    }
+}
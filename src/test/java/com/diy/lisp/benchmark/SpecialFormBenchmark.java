@@ -0,0 +1,50 @@
+package com.diy.lisp.benchmark;
+
+import com.diy.lisp.model.AbstractSyntaxTree;
+import com.diy.lisp.model.Environment;
+
+import static com.diy.lisp.Evaluator.evaluate;
+import static com.diy.lisp.Parser.parse;
+import static com.diy.lisp.benchmark.Benchmark.measure;
+
+/**
+ * Special forms evaluated by the tree-walking evaluator, as top-level
+ * expressions are. Each program is one list of its form with literal
+ * arguments, so the time per evaluation is mostly finding the form.
+ * The forms are in the order they used to be checked in.
+ *
+ * An operation evaluates the program 1000 times, so the microseconds per
+ * operation read as nanoseconds per evaluation; divide the bytes by 1000.
+ */
+public class SpecialFormBenchmark {
+
+    private static final int ITERATIONS = 2000;
+    private static final int REPEAT = 1000;
+
+    public static void main(String[] args) {
+        Environment env = new Environment();
+        evaluate(parse("(define f (lambda (x) x))"), env);
+
+        bench("(quote x)", env);
+        bench("(atom 1)", env);
+        bench("(eq 1 1)", env);
+        bench("(+ 1 2)", env);
+        bench("(> 1 2)", env);
+        bench("(if #t 1 2)", env);
+        bench("(cons 1 '())", env);
+        bench("(empty '())", env);
+        bench("(cond ((#f 1) (#t 2)))", env);
+        bench("(let ((x 1)) x)", env);
+        bench("(f 1)", env);
+    }
+
+    private static void bench(String program, Environment env) {
+        AbstractSyntaxTree ast = parse(program);
+        measure(program, ITERATIONS, () -> {
+            AbstractSyntaxTree result = null;
+            for (int i = 0; i < REPEAT; i++)
+                result = evaluate(ast, env);
+            return result;
+        });
+    }
+}
@@ -0,0 +1,44 @@
+package com.diy.lisp.benchmark;
+
+import com.diy.lisp.model.AbstractSyntaxTree;
+import com.diy.lisp.model.Environment;
+
+import static com.diy.lisp.Evaluator.evaluate;
+import static com.diy.lisp.Parser.parse;
+import static com.diy.lisp.benchmark.Benchmark.measure;
+import static com.diy.lisp.benchmark.Benchmark.withLargeStack;
+
+/**
+ * The part 7 standard library on lists of 100 000 elements.
+ */
+public class StdlibBenchmark {
+
+    private static final int SIZE = 100000;
+
+    public static void main(String[] args) throws InterruptedException {
+        withLargeStack(StdlibBenchmark::run);
+    }
+
+    private static void run() {
+        Environment env = Benchmark.stdlib();
+        evaluate(parse(String.format("(define numbers (range 1 %d))", SIZE)), env);
+        evaluate(parse("(define shuffled (map (lambda (x) (mod (* x 7919) 100003)) numbers))"), env);
+        evaluate(parse("(define even (lambda (x) (eq (mod x 2) 0)))"), env);
+        evaluate(parse("(define add (lambda (a b) (+ a b)))"), env);
+
+        bench("(length numbers)", env);
+        bench("(sum numbers)", env);
+        bench(String.format("(range 1 %d)", SIZE), env);
+        bench("(append numbers numbers)", env);
+        bench("(reverse numbers)", env);
+        bench("(map even numbers)", env);
+        bench("(filter even numbers)", env);
+        bench("(reduce add 0 numbers)", env);
+        bench("(sort shuffled)", env);
+    }
+
+    private static void bench(String program, Environment env) {
+        AbstractSyntaxTree ast = parse(program);
+        measure(program, 5, () -> evaluate(ast, env));
+    }
+}
@@ -0,0 +1,43 @@
+package com.diy.lisp.benchmark;
+
+import com.diy.lisp.model.AbstractSyntaxTree;
+import com.diy.lisp.model.Environment;
+import com.diy.lisp.model.Task;
+
+import static com.diy.lisp.Evaluator.evaluate;
+import static com.diy.lisp.Parser.parse;
+import static com.diy.lisp.benchmark.Benchmark.measure;
+import static com.diy.lisp.benchmark.Benchmark.withLargeStack;
+
+/**
+ * Spawning and awaiting 1000 tasks, and passing 1000 values through a
+ * channel between two tasks. Tasks run on virtual threads on Java 21 and
+ * up, and on pooled platform threads before.
+ */
+public class TaskBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.println(Task.isVirtual() ? "Virtual threads" : "Platform threads");
+        withLargeStack(TaskBenchmark::run);
+    }
+
+    private static void run() {
+        Environment env = Benchmark.stdlib();
+        evaluate(parse("(define numbers (range 1 1000))"), env);
+        evaluate(parse("(define produce (lambda (c n) (if (eq n 0) (send c 'done) "
+                + "(let ((sent (send c n))) (produce c (- n 1))))))"), env);
+        evaluate(parse("(define consume (lambda (c acc) (let ((v (recv c))) "
+                + "(if (eq v 'done) acc (consume c (+ acc v))))))"), env);
+        evaluate(parse("(define pipe (lambda (size) (let ((c (chan size))) "
+                + "(let ((producer (spawn (produce c 1000)))) (consume c 0)))))"), env);
+
+        bench("(sum (map (lambda (t) (await t)) (map (lambda (x) (spawn (* x x))) numbers)))", env);
+        bench("(pipe 0)", env);
+        bench("(pipe 16)", env);
+    }
+
+    private static void bench(String program, Environment env) {
+        AbstractSyntaxTree ast = parse(program);
+        measure(program, 20, () -> evaluate(ast, env));
+    }
+}